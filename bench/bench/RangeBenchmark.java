@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import sil.CellValue;
+import sil.SILRange;
+import subsheet.CellCode;
+
+// Measures going through the cells of a range, by listing them and with a cursor, against cells that all hold 1.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RangeBenchmark {
+    @Param({ "100", "10000" })
+    public int rangeSize;
+
+    private final CellValue one = CellValue.number(1);
+    private CellCode rangeStart;
+    private CellCode rangeEnd;
+
+    @Setup
+    public void setup() {
+        rangeStart = new CellCode(1, 1);
+        rangeEnd = new CellCode(1, rangeSize);
+    }
+
+    @Benchmark
+    public CellCode[] getRange() {
+        return CellCode.getRange(rangeStart, rangeEnd);
+    }
+
+    @Benchmark
+    public double iterateRange() {
+        double sum = 0;
+        SILRange.Cursor cursor = new SILRange(rangeStart, rangeEnd).cursor();
+        while (cursor.next()) {
+            sum += getValueFromCell(cursor.x(), cursor.y()).getNumber();
+        }
+        return sum;
+    }
+
+    private CellValue getValueFromCell(int x, int y) {
+        return one;
+    }
+}
@@ -0,0 +1,54 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import subsheet.CellCode;
+import subsheet.SheetModel;
+
+// Measures formulas over large ranges, whose cost should stay the same however many rows the ranges cover:
+// committing a formula over whole columns, and editing a cell inside the ranges of several totals.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RangeReferenceBenchmark {
+    private static final int TOTALS = 10;
+
+    @Param({ "1000", "1000000" })
+    public int rows;
+
+    private SheetModel model;
+    private final CellCode formulaCell = new CellCode(26, 1);
+    private CellCode editedCell;
+    private int edits;
+
+    @Setup
+    public void setup() {
+        model = new SheetModel(rows, 26);
+        model.setParallelism(1);
+        for (int y = 1; y <= Math.min(rows, 1000); y++) {
+            model.updateContent(new CellCode(1, y), String.valueOf(y));
+        }
+        for (int y = 1; y <= TOTALS; y++) {
+            model.updateContent(new CellCode(2, y), "=sum(A1..A" + rows + ")/" + y);
+        }
+        editedCell = new CellCode(1, rows / 2);
+        model.recalculateAll();
+    }
+
+    // Replaces a formula over every row of most columns, which registers its ranges with the dependency graph
+    @Benchmark
+    public List<CellCode> commitRangeFormula() {
+        String range = ++edits % 2 == 0 ? "C1..Y" : "A1..A";
+        return model.setContent(formulaCell, "=sum(" + range + rows + ")");
+    }
+
+    // Changes a cell every total covers and recalculates the totals
+    @Benchmark
+    public List<CellCode> editInsideRanges() {
+        return model.setContent(editedCell, String.valueOf(++edits % 100));
+    }
+}
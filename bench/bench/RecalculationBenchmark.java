@@ -0,0 +1,86 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import subsheet.CellCode;
+import subsheet.LongList;
+import subsheet.SheetModel;
+
+// Measures recalculation on sheet shapes that stress different parts of the engine:
+// CHAIN is a column where every cell adds one to the cell above, so each level holds a single cell,
+// FAN_OUT is a column of cells that all read A1, so one level holds every cell,
+// RANGE is a column of numbers summed by a single formula that a few other cells read.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecalculationBenchmark {
+    public enum Shape {
+        CHAIN,
+        FAN_OUT,
+        RANGE,
+    }
+
+    @Param({ "CHAIN", "FAN_OUT", "RANGE" })
+    public Shape shape;
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    @Param({ "1" })
+    public int parallelism;
+
+    private SheetModel model;
+    private final CellCode root = new CellCode(1, 1);
+    private int edits;
+
+    @Setup
+    public void setup() {
+        model = new SheetModel(size + 1, 26);
+        model.setParallelism(parallelism);
+        model.updateContent(root, "1");
+
+        switch (shape) {
+            case CHAIN -> {
+                for (int y = 2; y <= size; y++) {
+                    model.updateContent(new CellCode(1, y), "=A" + (y - 1) + "+1");
+                }
+            }
+            case FAN_OUT -> {
+                for (int y = 1; y <= size; y++) {
+                    model.updateContent(new CellCode(2, y), "=A1*" + y);
+                }
+            }
+            case RANGE -> {
+                for (int y = 2; y <= size; y++) {
+                    model.updateContent(new CellCode(1, y), String.valueOf(y));
+                }
+                model.updateContent(new CellCode(2, 1), "=sum(A1..A" + size + ")");
+                for (int y = 1; y <= 10; y++) {
+                    model.updateContent(new CellCode(3, y), "=B1/" + y);
+                }
+            }
+        }
+
+        model.recalculateAll();
+    }
+
+    @Benchmark
+    public List<CellCode> recalculateAll() {
+        return model.recalculateAll();
+    }
+
+    // Changes A1, which every formula depends on, and recalculates its dependents
+    @Benchmark
+    public List<CellCode> editRoot() {
+        return model.setContent(root, String.valueOf(++edits % 100));
+    }
+
+    @Benchmark
+    public List<long[]> recalculationLevels() {
+        return model.getDependencyGraph().getRecalculationLevels(new long[] { root.toAddress() }, new LongList(), new LongList());
+    }
+}
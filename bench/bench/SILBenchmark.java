@@ -0,0 +1,74 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import sil.*;
+import subsheet.CellAddress;
+
+// Measures each stage of evaluating a formula on its own, against a sheet where every cell holds the number 1.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SILBenchmark {
+    @Param({
+            "1+2*3",
+            "A1*B2-C3/D4+E5",
+            "if(A1>2, A2*3, sum(A1..B20))",
+            "\"Total: \"+(A1+A2+A3+A4+A5+A6+A7+A8+A9+A10+A11+A12+A13+A14+A15+A16)*2"
+    })
+    public String code;
+
+    private TokenList tokens;
+    private ExpressionTree expression;
+    private SILFormula formula;
+
+    private final SILInterpreter.SpreadsheetInterface sheet = new SILInterpreter.SpreadsheetInterface() {
+        private final CellValue one = CellValue.number(1);
+
+        @Override
+        public CellValue getValueFromCell(int x, int y) {
+            return one;
+        }
+
+        @Override
+        public Double sumRange(SILRange range) {
+            return null;
+        }
+
+        @Override
+        public long getCellAddress() {
+            return CellAddress.pack(26, 1_000_000);
+        }
+    };
+
+    @Setup
+    public void setup() {
+        tokens = new SILTokenizer(code).tokenize();
+        expression = new SILParser(tokens).parse();
+        formula = SILFormula.get(code);
+    }
+
+    @Benchmark
+    public TokenList tokenize() {
+        return new SILTokenizer(code).tokenize();
+    }
+
+    @Benchmark
+    public ExpressionTree parse() {
+        return new SILParser(tokens).parse();
+    }
+
+    @Benchmark
+    public Object interpret() {
+        return new SILInterpreter().interpret(expression, sheet);
+    }
+
+    // Goes through the formula cache and the compiled tier, like recalculation does
+    @Benchmark
+    public Object interpretFormula() {
+        return new SILInterpreter().interpret(formula, sheet);
+    }
+}
@@ -0,0 +1,165 @@
+package sil;
+
+public final class CellValue {
+    public enum Type {
+        EMPTY,
+        NUMBER,
+        BOOLEAN,
+        STRING,
+        ERROR,
+    }
+
+    public static final CellValue EMPTY = new CellValue(Type.EMPTY, 0, "", null);
+    public static final CellValue TRUE = new CellValue(Type.BOOLEAN, 1, "True", null);
+    public static final CellValue FALSE = new CellValue(Type.BOOLEAN, 0, "False", null);
+    private static final String INTERPRETER_ERROR_PREFIX = "*";
+
+    private final Type type;
+    private final double number;
+    private final String text;
+    private final InterpreterError error;
+
+    private CellValue(Type type, double number, String text, InterpreterError error) {
+        this.type = type;
+        this.number = number;
+        this.text = text;
+        this.error = error;
+    }
+
+    public static CellValue number(double number) {
+        return new CellValue(Type.NUMBER, number, null, null);
+    }
+
+    public static CellValue bool(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    public static CellValue string(String text) {
+        return text.isEmpty() ? EMPTY : new CellValue(Type.STRING, 0, text, null);
+    }
+
+    public static CellValue error(InterpreterError error) {
+        return new CellValue(Type.ERROR, 0, INTERPRETER_ERROR_PREFIX + error, error);
+    }
+
+    // Creates an error from its displayed code, which keeps its InterpreterError if it is one, ex. when read from a file
+    public static CellValue error(String code) {
+        if (code.startsWith(INTERPRETER_ERROR_PREFIX)) {
+            for (InterpreterError error : InterpreterError.values()) {
+                if (code.equals(INTERPRETER_ERROR_PREFIX + error.name())) {
+                    return error(error);
+                }
+            }
+        }
+
+        return new CellValue(Type.ERROR, 0, code, null);
+    }
+
+    // Converts the content of a cell without a formula, which is a number if it can be parsed as one
+    public static CellValue fromContent(String content) {
+        if (content.isEmpty()) {
+            return EMPTY;
+        }
+
+        if (looksNumeric(content)) {
+            try {
+                return number(Double.parseDouble(content));
+            } catch (NumberFormatException ex) {
+                // Falls back to text, ex. "1.2.3"
+            }
+        }
+
+        return string(content);
+    }
+
+    public static CellValue fromResult(Object result) {
+        if (result instanceof Double d) {
+            return number(d);
+        } else if (result instanceof Boolean b) {
+            return bool(b);
+        }
+
+        return string(result.toString());
+    }
+
+    private static boolean looksNumeric(String content) {
+        boolean digit = false;
+
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digit = true;
+            } else if (c != '.' && c != '-' && c != '+' && c != ' ') {
+                return false;
+            }
+        }
+
+        return digit;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public boolean isEmpty() {
+        return type == Type.EMPTY;
+    }
+
+    public boolean isNumber() {
+        return type == Type.NUMBER;
+    }
+
+    public boolean isError() {
+        return type == Type.ERROR;
+    }
+
+    public double getNumber() {
+        return number;
+    }
+
+    public boolean getBoolean() {
+        return number != 0;
+    }
+
+    // Returns the text of a string or error, or null for other types
+    public String getText() {
+        return text;
+    }
+
+    // Returns the InterpreterError of an error, where errors from tokenizing or parsing a formula are INV_CELL since
+    // the cell has no value to read, or null for other types
+    public InterpreterError getError() {
+        if (type != Type.ERROR) {
+            return null;
+        }
+
+        return error != null ? error : InterpreterError.INV_CELL;
+    }
+
+    // Returns the value as the interpreter represents it: a Double, Boolean, String or InterpreterError
+    public Object toObject() {
+        return switch (type) {
+            case NUMBER -> number;
+            case BOOLEAN -> getBoolean();
+            case ERROR -> getError();
+            default -> text;
+        };
+    }
+
+    public String format() {
+        return format(NumberFormatter.GENERAL);
+    }
+
+    public String format(NumberFormatter numberFormat) {
+        if (type == Type.NUMBER) {
+            return numberFormat.format(number);
+        }
+
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
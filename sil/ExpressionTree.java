@@ -0,0 +1,148 @@
+package sil;
+
+import java.util.Arrays;
+
+// A parsed formula stored as parallel arrays of nodes rather than an object for every node. Every node has an opcode,
+// a left and right int and a long value, which depending on the opcode hold:
+//   NUMBER, BOOLEAN  the value, as the bits of a double or 0 and 1
+//   STRING           the index of the string in value
+//   CELL             the address in value
+//   RANGE            the start address in value, and the row and column of the end address in left and right
+//   CALL             the index of the function in value, and the first argument and argument count in left and right
+//   ERROR            the InterpreterError a call found invalid when parsing evaluates to, in value, and its arguments
+//                    like a call
+//   NOT              the operand in left
+//   binary operators the operands in left and right
+// Children are always added before their parents. Operands missing because of a parser error are NONE.
+public class ExpressionTree {
+    public static final int NONE = -1;
+    private static final Opcode[] OPCODES = Opcode.values();
+
+    private byte[] opcodes = new byte[16];
+    private int[] lefts = new int[16];
+    private int[] rights = new int[16];
+    private long[] values = new long[16];
+    private int size;
+    private int[] arguments = new int[4];
+    private int argumentCount;
+    private String[] strings = new String[4];
+    private int stringCount;
+    private SILFunction[] functions = new SILFunction[2];
+    private int functionCount;
+    private int root = NONE;
+
+    int add(Opcode opcode, int left, int right, long value) {
+        if (size == opcodes.length) {
+            opcodes = Arrays.copyOf(opcodes, size * 2);
+            lefts = Arrays.copyOf(lefts, size * 2);
+            rights = Arrays.copyOf(rights, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        opcodes[size] = (byte) opcode.ordinal();
+        lefts[size] = left;
+        rights[size] = right;
+        values[size] = value;
+        return size++;
+    }
+
+    int addString(String string) {
+        if (stringCount == strings.length) {
+            strings = Arrays.copyOf(strings, stringCount * 2);
+        }
+
+        strings[stringCount] = string;
+        return stringCount++;
+    }
+
+    int addFunction(SILFunction function) {
+        if (functionCount == functions.length) {
+            functions = Arrays.copyOf(functions, functionCount * 2);
+        }
+
+        functions[functionCount] = function;
+        return functionCount++;
+    }
+
+    // Stores the argument nodes of a call and returns the index of the first one
+    int addArguments(int[] nodes, int count) {
+        if (argumentCount + count > arguments.length) {
+            arguments = Arrays.copyOf(arguments, Math.max(arguments.length * 2, argumentCount + count));
+        }
+
+        System.arraycopy(nodes, 0, arguments, argumentCount, count);
+        argumentCount += count;
+        return argumentCount - count;
+    }
+
+    void setRoot(int root) {
+        this.root = root;
+    }
+
+    // Drops the unused capacity once parsing is done, since trees are kept for as long as their formula is cached
+    void trim() {
+        opcodes = Arrays.copyOf(opcodes, size);
+        lefts = Arrays.copyOf(lefts, size);
+        rights = Arrays.copyOf(rights, size);
+        values = Arrays.copyOf(values, size);
+        arguments = Arrays.copyOf(arguments, argumentCount);
+        strings = Arrays.copyOf(strings, stringCount);
+        functions = Arrays.copyOf(functions, functionCount);
+    }
+
+    public int getRoot() {
+        return root;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Opcode getOpcode(int node) {
+        return OPCODES[opcodes[node]];
+    }
+
+    public int getLeft(int node) {
+        return lefts[node];
+    }
+
+    public int getRight(int node) {
+        return rights[node];
+    }
+
+    public double getNumber(int node) {
+        return Double.longBitsToDouble(values[node]);
+    }
+
+    public boolean getBoolean(int node) {
+        return values[node] != 0;
+    }
+
+    public String getString(int node) {
+        return strings[(int) values[node]];
+    }
+
+    public long getAddress(int node) {
+        return values[node];
+    }
+
+    public long getEndAddress(int node) {
+        return ((long) lefts[node] << 32) | (rights[node] & 0xFFFFFFFFL);
+    }
+
+    public SILFunction getFunction(int node) {
+        return functions[(int) values[node]];
+    }
+
+    public InterpreterError getError(int node) {
+        return InterpreterError.values()[(int) values[node]];
+    }
+
+    public int getArgumentCount(int node) {
+        return rights[node];
+    }
+
+    public int getArgument(int node, int index) {
+        return arguments[lefts[node] + index];
+    }
+}
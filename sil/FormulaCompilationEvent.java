@@ -0,0 +1,20 @@
+package sil;
+
+import jdk.jfr.*;
+
+@Name("subsheet.FormulaCompilation")
+@Label("Formula Compilation")
+@Category("Subsheet")
+@Description("Tokenizing and parsing a formula that was not in the formula cache")
+public class FormulaCompilationEvent extends Event {
+    @Label("Formula")
+    public String formula;
+
+    @Label("Tokenize Time")
+    @Timespan
+    public long tokenizeNanos;
+
+    @Label("Parse Time")
+    @Timespan
+    public long parseNanos;
+}
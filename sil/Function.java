@@ -1,6 +0,0 @@
-package sil;
-
-public interface Function<R>
-{
-    R call();
-}
@@ -0,0 +1,212 @@
+package sil;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
+import java.util.HashMap;
+import java.util.Map;
+
+// Formats numbers like DecimalFormat with a pattern of digits, an optional grouping separator, decimal point and
+// percent sign, ex. "#,##0.00" or "0%". Formatters are immutable, so one instance can be shared between threads and
+// cells, and numbers that fit in a long are formatted without BigDecimal.
+public final class NumberFormatter {
+    public static final String GENERAL_PATTERN = "#.######";
+    public static final NumberFormatter GENERAL = new NumberFormatter(GENERAL_PATTERN);
+
+    // Below 2^40 the error of scaling a double by a power of ten is well under the margin kept from ties, so rounding
+    // the scaled double gives the same result as rounding the exact value
+    private static final double MAX_FAST_UNITS = 0x1p40;
+    private static final double TIE_MARGIN = 1e-3;
+    private static final int MAX_FRACTION_DIGITS = 9;
+    private static final BigDecimal HALF = BigDecimal.valueOf(5, 1);
+
+    // Replaced rather than modified when a pattern is added, so lookups don't lock
+    private static volatile Map<String, NumberFormatter> formatters = Map.of(GENERAL_PATTERN, GENERAL);
+
+    private final String pattern;
+    private final int minimumIntegerDigits;
+    private final int minimumFractionDigits;
+    private final int maximumFractionDigits;
+    private final int groupingSize;
+    private final boolean percent;
+    private final long scale;
+    private final char zero;
+    private final char decimalSeparator;
+    private final char groupingSeparator;
+    private final String minus;
+    private final String infinity;
+    private final String nan;
+
+    private NumberFormatter(String pattern) {
+        this.pattern = pattern;
+        int decimalPosition = pattern.indexOf('.');
+        int end = pattern.endsWith("%") ? pattern.length() - 1 : pattern.length();
+        int integerEnd = decimalPosition >= 0 ? decimalPosition : end;
+        int integerZeros = 0;
+        int lastGrouping = -1;
+        boolean digits = false;
+
+        for (int i = 0; i < integerEnd; i++) {
+            char c = pattern.charAt(i);
+            if (c == '0') {
+                integerZeros++;
+            } else if (c == ',') {
+                lastGrouping = i;
+            } else if (c != '#' || integerZeros > 0) {
+                throw new IllegalArgumentException("Invalid number format: " + pattern);
+            }
+            digits |= c != ',';
+        }
+
+        int fractionZeros = 0;
+        int fractionDigits = 0;
+        for (int i = integerEnd + 1; i < end; i++) {
+            char c = pattern.charAt(i);
+            if (c == '0' && fractionDigits == fractionZeros) {
+                fractionZeros++;
+            } else if (c != '#') {
+                throw new IllegalArgumentException("Invalid number format: " + pattern);
+            }
+            fractionDigits++;
+        }
+
+        if ((!digits && fractionDigits == 0) || fractionDigits > MAX_FRACTION_DIGITS || (lastGrouping >= 0 && lastGrouping == integerEnd - 1)) {
+            throw new IllegalArgumentException("Invalid number format: " + pattern);
+        }
+
+        // Like DecimalFormat, a pattern without any zeros still shows the integer digit, ex. 0.5 as "0.5" for "#.#"
+        minimumIntegerDigits = integerZeros == 0 && fractionZeros == 0 && digits ? 1 : integerZeros;
+        minimumFractionDigits = fractionZeros;
+        maximumFractionDigits = fractionDigits;
+        groupingSize = lastGrouping >= 0 ? integerEnd - lastGrouping - 1 : 0;
+        percent = end < pattern.length();
+
+        long scale = 1;
+        for (int i = 0; i < maximumFractionDigits; i++) {
+            scale *= 10;
+        }
+        this.scale = scale;
+
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+        zero = symbols.getZeroDigit();
+        decimalSeparator = symbols.getDecimalSeparator();
+        groupingSeparator = symbols.getGroupingSeparator();
+        minus = String.valueOf(symbols.getMinusSign());
+        infinity = symbols.getInfinity();
+        nan = symbols.getNaN();
+    }
+
+    // Returns the shared formatter for a pattern, throwing IllegalArgumentException if the pattern isn't supported
+    public static NumberFormatter get(String pattern) {
+        NumberFormatter formatter = formatters.get(pattern);
+        if (formatter != null) {
+            return formatter;
+        }
+
+        synchronized (NumberFormatter.class) {
+            formatter = formatters.get(pattern);
+            if (formatter == null) {
+                formatter = new NumberFormatter(pattern);
+                HashMap<String, NumberFormatter> newFormatters = new HashMap<>(formatters);
+                newFormatters.put(pattern, formatter);
+                formatters = Map.copyOf(newFormatters);
+            }
+            return formatter;
+        }
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public String format(double number) {
+        if (Double.isNaN(number)) {
+            return nan;
+        }
+
+        StringBuilder text = new StringBuilder(24);
+        // Negative zero and negative numbers rounding to zero keep their sign, as with DecimalFormat
+        if (Double.doubleToRawLongBits(number) < 0) {
+            text.append(minus);
+        }
+
+        double value = Math.abs(number);
+        if (percent) {
+            value *= 100;
+        }
+
+        if (Double.isInfinite(value)) {
+            text.append(infinity);
+        } else if (value < 1e15 && value == Math.rint(value)) {
+            appendNumber(text, Long.toString((long) value), 0);
+        } else {
+            double units = value * scale;
+            double rounded = Math.rint(units);
+            if (units < MAX_FAST_UNITS && (units == rounded || Math.abs(Math.abs(units - rounded) - 0.5) > TIE_MARGIN)) {
+                appendNumber(text, Long.toString((long) rounded / scale), (long) rounded % scale);
+            } else {
+                appendExact(text, value);
+            }
+        }
+
+        if (percent) {
+            text.append('%');
+        }
+        return text.toString();
+    }
+
+    // Rounds like DecimalFormat, which rounds the shortest digits that represent the double, and only uses its exact
+    // value to break ties
+    private void appendExact(StringBuilder text, double value) {
+        BigDecimal decimal = BigDecimal.valueOf(value);
+        BigDecimal truncated = decimal.setScale(maximumFractionDigits, RoundingMode.DOWN);
+        if (decimal.subtract(truncated).movePointRight(maximumFractionDigits).compareTo(HALF) == 0) {
+            decimal = new BigDecimal(value);
+        }
+        decimal = decimal.setScale(maximumFractionDigits, RoundingMode.HALF_EVEN);
+        BigDecimal integer = decimal.setScale(0, RoundingMode.DOWN);
+        long fraction = decimal.subtract(integer).movePointRight(maximumFractionDigits).longValue();
+        appendNumber(text, integer.toPlainString(), fraction);
+    }
+
+    private void appendNumber(StringBuilder text, String integer, long fraction) {
+        int integerDigits = integer.equals("0") ? 0 : integer.length();
+        int digits = Math.max(integerDigits, minimumIntegerDigits);
+
+        for (int i = digits; i > 0; i--) {
+            text.append(i > integerDigits ? zero : (char) (zero + integer.charAt(integerDigits - i) - '0'));
+            if (groupingSize > 0 && i > 1 && (i - 1) % groupingSize == 0) {
+                text.append(groupingSeparator);
+            }
+        }
+
+        int fractionDigits = maximumFractionDigits;
+        long remaining = fraction;
+        while (fractionDigits > minimumFractionDigits && remaining % 10 == 0) {
+            remaining /= 10;
+            fractionDigits--;
+        }
+
+        if (fractionDigits > 0) {
+            text.append(decimalSeparator);
+            for (int i = maximumFractionDigits - 1; i >= maximumFractionDigits - fractionDigits; i--) {
+                text.append((char) (zero + fraction / pow10(i) % 10));
+            }
+        } else if (digits == 0) {
+            text.append(zero);
+        }
+    }
+
+    private static long pow10(int exponent) {
+        long power = 1;
+        for (int i = 0; i < exponent; i++) {
+            power *= 10;
+        }
+        return power;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,22 @@
+package sil;
+
+public enum Opcode {
+    NUMBER,
+    STRING,
+    BOOLEAN,
+    CELL,
+    RANGE,
+    CALL,
+    ERROR,
+    NOT,
+    ADD,
+    SUBTRACT,
+    MULTIPLY,
+    DIVIDE,
+    EQUAL,
+    NOT_EQUAL,
+    LESSER_THAN,
+    GREATER_THAN,
+    LESSER_EQUAL,
+    GREATER_EQUAL,
+}
@@ -4,4 +4,5 @@ public enum ParserError {
     NONE,
     NO_PAREN,
     UNX_TOKEN,
+    MAX_DEPTH,
 }
@@ -0,0 +1,293 @@
+package sil;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import subsheet.CellAddress;
+import subsheet.CellCode;
+
+import static java.lang.invoke.MethodType.methodType;
+
+// Compiles numeric and boolean expressions into a tree of method handles working on unboxed values.
+// Expressions that involve strings or unknown functions are left to the interpreter.
+public class SILCompiler {
+    public static class DeoptimizationException extends RuntimeException {
+        private DeoptimizationException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final DeoptimizationException DEOPTIMIZE = new DeoptimizationException();
+    private static final Class<?> INTERFACE = SILInterpreter.SpreadsheetInterface.class;
+    private static final int MAX_DEPTH = 64;
+
+    private static final MethodHandle ADD = findOperator("add", double.class, double.class);
+    private static final MethodHandle SUBTRACT = findOperator("subtract", double.class, double.class);
+    private static final MethodHandle MULTIPLY = findOperator("multiply", double.class, double.class);
+    private static final MethodHandle DIVIDE = findOperator("divide", double.class, double.class);
+    private static final MethodHandle LESSER_THAN = findOperator("lesserThan", boolean.class, double.class);
+    private static final MethodHandle GREATER_THAN = findOperator("greaterThan", boolean.class, double.class);
+    private static final MethodHandle LESSER_EQUAL = findOperator("lesserEqual", boolean.class, double.class);
+    private static final MethodHandle GREATER_EQUAL = findOperator("greaterEqual", boolean.class, double.class);
+    private static final MethodHandle EQUAL_NUMBERS = findOperator("equal", boolean.class, double.class);
+    private static final MethodHandle NOT_EQUAL_NUMBERS = findOperator("notEqual", boolean.class, double.class);
+    private static final MethodHandle EQUAL_BOOLEANS = findOperator("equal", boolean.class, boolean.class);
+    private static final MethodHandle NOT_EQUAL_BOOLEANS = findOperator("notEqual", boolean.class, boolean.class);
+    private static final MethodHandle NOT = findStatic("not", methodType(boolean.class, boolean.class));
+    private static final MethodHandle SELECT_NUMBER = findStatic("select", methodType(double.class, boolean.class, double.class, double.class));
+    private static final MethodHandle SELECT_BOOLEAN = findStatic("select", methodType(boolean.class, boolean.class, boolean.class, boolean.class));
+    private static final MethodHandle READ_NUMBER = findStatic("readNumber", methodType(double.class, INTERFACE, long.class));
+    private static final MethodHandle SUM_RANGE = findStatic("sumRange", methodType(double.class, INTERFACE, SILRange.class));
+
+    private final ExpressionTree tree;
+
+    private SILCompiler(ExpressionTree tree) {
+        this.tree = tree;
+    }
+
+    // Returns a handle of type (SpreadsheetInterface)double or (SpreadsheetInterface)boolean,
+    // or null if the expression can only be interpreted.
+    public static MethodHandle compile(ExpressionTree tree) {
+        // Every level of the expression adds nested calls when the handle is invoked, so deep expressions are
+        // left to the interpreter, which doesn't recurse
+        if (getDepth(tree) > MAX_DEPTH) {
+            return null;
+        }
+
+        return new SILCompiler(tree).compileNode(tree.getRoot());
+    }
+
+    private static int getDepth(ExpressionTree tree) {
+        int[] depths = new int[tree.size()];
+        int depth = 0;
+
+        for (int node = 0; node < depths.length; node++) {
+            int childDepth = switch (tree.getOpcode(node)) {
+                case NUMBER, STRING, BOOLEAN, CELL, RANGE -> 0;
+                case NOT -> depths[tree.getLeft(node)];
+                case CALL, ERROR -> {
+                    int argumentDepth = 0;
+                    for (int i = 0; i < tree.getArgumentCount(node); i++) {
+                        argumentDepth = Math.max(argumentDepth, depths[tree.getArgument(node, i)]);
+                    }
+                    yield argumentDepth;
+                }
+                default -> Math.max(depths[tree.getLeft(node)], depths[tree.getRight(node)]);
+            };
+            depths[node] = childDepth + 1;
+            depth = Math.max(depth, depths[node]);
+        }
+
+        return depth;
+    }
+
+    public static Object invoke(MethodHandle handle, SILInterpreter.SpreadsheetInterface spreadsheetInterface) {
+        try {
+            if (handle.type().returnType() == double.class) {
+                return (double) handle.invokeExact(spreadsheetInterface);
+            }
+            return (boolean) handle.invokeExact(spreadsheetInterface);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private MethodHandle compileNode(int node) {
+        if (node == ExpressionTree.NONE) {
+            return null;
+        }
+
+        return switch (tree.getOpcode(node)) {
+            case NUMBER -> MethodHandles.dropArguments(MethodHandles.constant(double.class, tree.getNumber(node)), 0, INTERFACE);
+            case BOOLEAN -> MethodHandles.dropArguments(MethodHandles.constant(boolean.class, tree.getBoolean(node)), 0, INTERFACE);
+            case STRING, RANGE, ERROR -> null;
+            case CELL -> MethodHandles.insertArguments(READ_NUMBER, 1, tree.getAddress(node));
+            case CALL -> compileCall(node);
+            case NOT -> compileNot(node);
+            default -> compileBinary(node);
+        };
+    }
+
+    private MethodHandle compileBinary(int node) {
+        MethodHandle left = compileNode(tree.getLeft(node));
+        MethodHandle right = compileNode(tree.getRight(node));
+        if (left == null || right == null) {
+            return null;
+        }
+
+        boolean numbers = isNumber(left) && isNumber(right);
+        boolean booleans = !isNumber(left) && !isNumber(right);
+        MethodHandle operator = switch (tree.getOpcode(node)) {
+            case ADD -> numbers ? ADD : null;
+            case SUBTRACT -> numbers ? SUBTRACT : null;
+            case MULTIPLY -> numbers ? MULTIPLY : null;
+            case DIVIDE -> numbers ? DIVIDE : null;
+            case LESSER_THAN -> numbers ? LESSER_THAN : null;
+            case GREATER_THAN -> numbers ? GREATER_THAN : null;
+            case LESSER_EQUAL -> numbers ? LESSER_EQUAL : null;
+            case GREATER_EQUAL -> numbers ? GREATER_EQUAL : null;
+            case EQUAL -> numbers ? EQUAL_NUMBERS : booleans ? EQUAL_BOOLEANS : null;
+            case NOT_EQUAL -> numbers ? NOT_EQUAL_NUMBERS : booleans ? NOT_EQUAL_BOOLEANS : null;
+            default -> null;
+        };
+
+        return operator != null ? combine(operator, left, right) : null;
+    }
+
+    private MethodHandle compileNot(int node) {
+        MethodHandle operand = compileNode(tree.getLeft(node));
+        if (operand == null || isNumber(operand)) {
+            return null;
+        }
+
+        return MethodHandles.filterReturnValue(operand, NOT);
+    }
+
+    private MethodHandle compileCall(int node) {
+        // Calls are only parsed as CALL once their argument count and static types have been checked
+        SILFunction function = tree.getFunction(node);
+
+        if (function == SILInterpreter.IF) {
+            MethodHandle condition = compileNode(tree.getArgument(node, 0));
+            MethodHandle ifTrue = compileNode(tree.getArgument(node, 1));
+            MethodHandle ifFalse = compileNode(tree.getArgument(node, 2));
+            if (condition == null || ifTrue == null || ifFalse == null || isNumber(condition) || isNumber(ifTrue) != isNumber(ifFalse)) {
+                return null;
+            }
+
+            return combine(isNumber(ifTrue) ? SELECT_NUMBER : SELECT_BOOLEAN, condition, ifTrue, ifFalse);
+        } else if (function == SILInterpreter.SUM) {
+            int argument = tree.getArgument(node, 0);
+            if (tree.getOpcode(argument) != Opcode.RANGE) {
+                return null;
+            }
+
+            SILRange cells = new SILRange(CellCode.fromAddress(tree.getAddress(argument)), CellCode.fromAddress(tree.getEndAddress(argument)));
+            return MethodHandles.insertArguments(SUM_RANGE, 1, cells);
+        }
+
+        return null;
+    }
+
+    private static boolean isNumber(MethodHandle handle) {
+        return handle.type().returnType() == double.class;
+    }
+
+    // Feeds every operand the same SpreadsheetInterface argument and passes their results to the operator
+    private static MethodHandle combine(MethodHandle operator, MethodHandle... operands) {
+        MethodHandle combined = MethodHandles.filterArguments(operator, 0, operands);
+        MethodType type = methodType(operator.type().returnType(), INTERFACE);
+        return MethodHandles.permuteArguments(combined, type, new int[operands.length]);
+    }
+
+    private static MethodHandle findOperator(String name, Class<?> returnType, Class<?> operandType) {
+        return findStatic(name, methodType(returnType, operandType, operandType));
+    }
+
+    private static MethodHandle findStatic(String name, MethodType type) {
+        try {
+            return MethodHandles.lookup().findStatic(SILCompiler.class, name, type);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private static double add(double a, double b) {
+        return a + b;
+    }
+
+    private static double subtract(double a, double b) {
+        return a - b;
+    }
+
+    private static double multiply(double a, double b) {
+        return a * b;
+    }
+
+    private static double divide(double a, double b) {
+        return a / b;
+    }
+
+    private static boolean lesserThan(double a, double b) {
+        return a < b;
+    }
+
+    private static boolean greaterThan(double a, double b) {
+        return a > b;
+    }
+
+    private static boolean lesserEqual(double a, double b) {
+        return a <= b;
+    }
+
+    private static boolean greaterEqual(double a, double b) {
+        return a >= b;
+    }
+
+    private static boolean equal(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
+    private static boolean notEqual(double a, double b) {
+        return !equal(a, b);
+    }
+
+    private static boolean equal(boolean a, boolean b) {
+        return a == b;
+    }
+
+    private static boolean notEqual(boolean a, boolean b) {
+        return a != b;
+    }
+
+    private static boolean not(boolean value) {
+        return !value;
+    }
+
+    private static double select(boolean condition, double ifTrue, double ifFalse) {
+        return condition ? ifTrue : ifFalse;
+    }
+
+    private static boolean select(boolean condition, boolean ifTrue, boolean ifFalse) {
+        return condition ? ifTrue : ifFalse;
+    }
+
+    private static double readNumber(SILInterpreter.SpreadsheetInterface spreadsheetInterface, long address) {
+        if (address == spreadsheetInterface.getCellAddress()) {
+            throw DEOPTIMIZE;
+        }
+
+        CellValue value = spreadsheetInterface.getValueFromCell(CellAddress.getX(address), CellAddress.getY(address));
+        if (value == null || !value.isNumber()) {
+            throw DEOPTIMIZE;
+        }
+
+        return value.getNumber();
+    }
+
+    private static double sumRange(SILInterpreter.SpreadsheetInterface spreadsheetInterface, SILRange range) {
+        Double indexedSum = spreadsheetInterface.sumRange(range);
+        if (indexedSum != null) {
+            return indexedSum;
+        }
+
+        double sum = 0;
+        SILRange.Cursor cursor = range.cursor();
+
+        while (cursor.next()) {
+            CellValue value = spreadsheetInterface.getValueFromCell(cursor.x(), cursor.y());
+            if (value == null) {
+                throw DEOPTIMIZE;
+            } else if (value.isNumber()) {
+                sum += value.getNumber();
+            } else if (!value.isEmpty()) {
+                throw DEOPTIMIZE;
+            }
+        }
+
+        return sum;
+    }
+}
@@ -0,0 +1,158 @@
+package sil;
+
+import subsheet.LongHashSet;
+import subsheet.LongList;
+
+import java.lang.invoke.MethodHandle;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+public class SILFormula {
+    private static final int CACHE_CAPACITY = 4096;
+    private static final int COMPILE_THRESHOLD = 64;
+    private static final LinkedHashMap<String, SILFormula> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SILFormula> eldest) {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+    private static final LongAdder tokenizeNanos = new LongAdder();
+    private static final LongAdder parseNanos = new LongAdder();
+
+    private final String code;
+    private final TokenizerError tokenizerError;
+    private final ParserError parserError;
+    private final ExpressionTree expression;
+    private final long[] references;
+    private final long[] rangeReferences;
+    private int evaluationCount;
+    private volatile boolean compilationAttempted;
+    private volatile MethodHandle compiledExpression;
+
+    private SILFormula(String code, TokenizerError tokenizerError, ParserError parserError, ExpressionTree expression, long[] references, long[] rangeReferences) {
+        this.code = code;
+        this.tokenizerError = tokenizerError;
+        this.parserError = parserError;
+        this.expression = expression;
+        this.references = references;
+        this.rangeReferences = rangeReferences;
+    }
+
+    public static SILFormula get(String code) {
+        synchronized (cache) {
+            SILFormula formula = cache.get(code);
+            if (formula == null) {
+                formula = compile(code);
+                cache.put(code, formula);
+            }
+            return formula;
+        }
+    }
+
+    private static SILFormula compile(String code) {
+        FormulaCompilationEvent event = new FormulaCompilationEvent();
+        event.begin();
+        long start = System.nanoTime();
+        SILTokenizer tokenizer = new SILTokenizer(code);
+        TokenList tokens = tokenizer.tokenize();
+        long tokenized = System.nanoTime();
+        tokenizeNanos.add(tokenized - start);
+
+        if (tokenizer.error != TokenizerError.NONE) {
+            return new SILFormula(code, tokenizer.error, ParserError.NONE, null, new long[0], new long[0]);
+        }
+
+        SILParser parser = new SILParser(tokens);
+        ExpressionTree expression = parser.parse();
+        long[] references = collectReferences(expression);
+        long[] rangeReferences = collectRangeReferences(expression);
+        long parsed = System.nanoTime();
+        parseNanos.add(parsed - tokenized);
+
+        if (event.shouldCommit()) {
+            event.formula = code;
+            event.tokenizeNanos = tokenized - start;
+            event.parseNanos = parsed - tokenized;
+            event.commit();
+        }
+
+        return new SILFormula(code, TokenizerError.NONE, parser.error, expression, references, rangeReferences);
+    }
+
+    // Returns the total time spent tokenizing formulas missing from the cache
+    public static long getTokenizeNanos() {
+        return tokenizeNanos.sum();
+    }
+
+    // Returns the total time spent parsing formulas missing from the cache, including collecting their references
+    public static long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    private static long[] collectReferences(ExpressionTree expression) {
+        LongHashSet references = new LongHashSet();
+
+        for (int node = 0; node < expression.size(); node++) {
+            if (expression.getOpcode(node) == Opcode.CELL) {
+                references.add(expression.getAddress(node));
+            }
+        }
+
+        long[] addresses = references.toArray();
+        Arrays.sort(addresses);
+        return addresses;
+    }
+
+    // Ranges are kept as their corners, so a formula over a large range doesn't list every cell it covers
+    private static long[] collectRangeReferences(ExpressionTree expression) {
+        LongList rangeReferences = new LongList();
+
+        for (int node = 0; node < expression.size(); node++) {
+            if (expression.getOpcode(node) == Opcode.RANGE) {
+                rangeReferences.add(expression.getAddress(node));
+                rangeReferences.add(expression.getEndAddress(node));
+            }
+        }
+
+        return rangeReferences.toArray();
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public TokenizerError getTokenizerError() {
+        return tokenizerError;
+    }
+
+    public ParserError getParserError() {
+        return parserError;
+    }
+
+    public ExpressionTree getExpression() {
+        return expression;
+    }
+
+    // Returns the distinct addresses of the cells the formula reads outside of ranges, which must not be modified
+    public long[] getReferences() {
+        return references;
+    }
+
+    // Returns the ranges the formula reads as pairs of start and end addresses, which must not be modified
+    public long[] getRangeReferences() {
+        return rangeReferences;
+    }
+
+    MethodHandle getCompiledExpression() {
+        if (!compilationAttempted && ++evaluationCount >= COMPILE_THRESHOLD) {
+            compilationAttempted = true;
+            compiledExpression = SILCompiler.compile(expression);
+        }
+
+        return compiledExpression;
+    }
+
+    void discardCompiledExpression() {
+        compiledExpression = null;
+    }
+}
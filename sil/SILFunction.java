@@ -1,21 +1,40 @@
 package sil;
 
-public abstract class SILFunction<T> {
+// A function callable from formulas. Calls are bound to their function when the formula is parsed, where the argument
+// count and what can be told about the argument types are checked, and are then made through the call method for
+// their number of arguments, which functions override for the counts they take. Errors are returned as
+// InterpreterError values.
+public abstract class SILFunction {
+    private final String name;
+
+    protected SILFunction(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
     public abstract boolean checkArgumentCount(int argCount);
 
-    public abstract boolean checkArgumentTypes(Object[] args);
+    // Returns false if an argument written as the given kind of expression can never have the right type
+    public boolean checkArgumentExpression(int index, Opcode opcode) {
+        return true;
+    }
 
-    public final T call(Object[] args) {
-        if (!checkArgumentCount(args.length)) {
-            throw new SILInterpreter.InterpreterException(InterpreterError.INV_ARGS);
-        }
+    public Object call(Object arg, SILInterpreter.SpreadsheetInterface spreadsheetInterface) {
+        return call(new Object[] { arg }, spreadsheetInterface);
+    }
 
-        if (!checkArgumentTypes(args)) {
-            throw new SILInterpreter.InterpreterException(InterpreterError.INV_TYPE);
-        }
+    public Object call(Object arg1, Object arg2, SILInterpreter.SpreadsheetInterface spreadsheetInterface) {
+        return call(new Object[] { arg1, arg2 }, spreadsheetInterface);
+    }
 
-        return onCall(args);
+    public Object call(Object arg1, Object arg2, Object arg3, SILInterpreter.SpreadsheetInterface spreadsheetInterface) {
+        return call(new Object[] { arg1, arg2, arg3 }, spreadsheetInterface);
     }
 
-    protected abstract T onCall(Object[] args);
+    public Object call(Object[] args, SILInterpreter.SpreadsheetInterface spreadsheetInterface) {
+        return InterpreterError.INV_ARGS;
+    }
 }
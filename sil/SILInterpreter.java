@@ -1,144 +1,182 @@
 package sil;
 
+import subsheet.CellAddress;
 import subsheet.CellCode;
 
-import java.text.DecimalFormat;
-import java.util.HashMap;
+import java.lang.invoke.MethodHandle;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.BiFunction;
 import java.util.function.BinaryOperator;
 
-import static sil.Expression.*;
-
-public class SILInterpreter implements Visitor<Object> {
+// Errors are evaluated to InterpreterError values, which operators and functions pass on instead of computing a result.
+public class SILInterpreter {
     public interface SpreadsheetInterface {
-        String getValueFromCell(String cellCode);
-        String getValueFromCell(CellCode cellCode);
-        String getCellCode();
+        // Returns the value of a cell, or null if the cell is outside the spreadsheet
+        CellValue getValueFromCell(int x, int y);
+        // Returns the sum of a range from an index, or null if the range has to be read cell by cell
+        Double sumRange(SILRange range);
+        long getCellAddress();
     }
 
-    public static class InterpreterException extends RuntimeException {
-        public InterpreterError type;
-
-        public InterpreterException(InterpreterError type) {
-            this.type = type;
+    public InterpreterError error = InterpreterError.NONE;
+    private ExpressionTree tree;
+    private Object[] values;
+    private SpreadsheetInterface spreadsheetInterface;
+    static final SILFunction IF = new SILFunction("if") {
+        @Override
+        public boolean checkArgumentCount(int argCount) {
+            return argCount == 3;
         }
-    }
 
-    public InterpreterError error = InterpreterError.NONE;
-    private static SpreadsheetInterface spreadsheetInterface;
-    private static final HashMap<String, SILFunction<?>> functions = new HashMap<>();
+        @Override
+        public boolean checkArgumentExpression(int index, Opcode opcode) {
+            return index != 0 || switch (opcode) {
+                case NUMBER, STRING, RANGE, ADD, SUBTRACT, MULTIPLY, DIVIDE -> false;
+                default -> true;
+            };
+        }
 
-    static {
-        functions.put("if", new SILFunction<>() {
-            @Override
-            public boolean checkArgumentCount(int argCount) {
-                return argCount == 3;
+        @Override
+        public Object call(Object condition, Object ifTrue, Object ifFalse, SpreadsheetInterface spreadsheetInterface) {
+            if (condition instanceof Boolean b) {
+                return b ? ifTrue : ifFalse;
             }
 
-            @Override
-            public boolean checkArgumentTypes(Object[] args) {
-                return args[0] instanceof Boolean;
-            }
+            return InterpreterError.INV_TYPE;
+        }
+    };
+    static final SILFunction SUM = new SILFunction("sum") {
+        @Override
+        public boolean checkArgumentCount(int argCount) {
+            return argCount == 1;
+        }
 
-            @Override
-            protected Object onCall(Object[] args) {
-                return args[((boolean) args[0]) ? 1 : 2];
-            }
-        });
-        functions.put("sum", new SILFunction<>() {
-            @Override
-            public boolean checkArgumentCount(int argCount) {
-                return argCount == 1;
+        @Override
+        public boolean checkArgumentExpression(int index, Opcode opcode) {
+            // Only a range or a call, which might return one, can be summed
+            return opcode == Opcode.RANGE || opcode == Opcode.CALL;
+        }
+
+        @Override
+        public Object call(Object arg, SpreadsheetInterface spreadsheetInterface) {
+            if (!(arg instanceof SILRange range)) {
+                return InterpreterError.INV_TYPE;
             }
 
-            @Override
-            public boolean checkArgumentTypes(Object[] args) {
-                return args[0] instanceof SILRange;
+            Double indexedSum = spreadsheetInterface.sumRange(range);
+            if (indexedSum != null) {
+                return indexedSum;
             }
 
-            @Override
-            protected Object onCall(Object[] args) {
-                SILRange range = ((SILRange) args[0]);
-                double sum = 0;
+            double sum = 0;
+            SILRange.Cursor cursor = range.cursor();
 
-                for (CellCode cellCode : range.getCellsInRange()) {
-                    String value = spreadsheetInterface.getValueFromCell(cellCode);
-                    Double d = tryParseDouble(value);
-                    if (d != null) {
-                        sum += d;
-                    } else if (!value.isEmpty()) {
-                        throw new InterpreterException(InterpreterError.INV_TYPE);
-                    }
+            while (cursor.next()) {
+                CellValue value = spreadsheetInterface.getValueFromCell(cursor.x(), cursor.y());
+                if (value == null) {
+                    return InterpreterError.INV_CELL;
+                } else if (value.isError()) {
+                    return value.getError();
+                } else if (value.isNumber()) {
+                    sum += value.getNumber();
+                } else if (!value.isEmpty()) {
+                    return InterpreterError.INV_TYPE;
                 }
-
-                return sum;
             }
-        });
+
+            return sum;
+        }
+    };
+    private static final Map<String, SILFunction> functions = Map.of(IF.getName(), IF, SUM.getName(), SUM);
+
+    // Returns the function with a name, or null if there isn't one
+    static SILFunction getFunction(String name) {
+        return functions.get(name);
     }
 
-    public Object interpret(Expression expression, SpreadsheetInterface spreadsheetInterface) {
-        SILInterpreter.spreadsheetInterface = spreadsheetInterface;
+    public Object interpret(SILFormula formula, SpreadsheetInterface spreadsheetInterface) {
+        MethodHandle compiledExpression = formula.getCompiledExpression();
 
-        try {
-            return evaluate(expression);
-        } catch (InterpreterException ex) {
-            error = ex.type;
-            return null;
-        } catch (StackOverflowError ex) {
-            error = InterpreterError.CIRC_REF;
-            return null;
+        if (compiledExpression != null) {
+            try {
+                return SILCompiler.invoke(compiledExpression, spreadsheetInterface);
+            } catch (SILCompiler.DeoptimizationException ex) {
+                // Values the compiled expression can't handle are evaluated and reported by the interpreter
+                formula.discardCompiledExpression();
+            }
         }
+
+        return interpret(formula.getExpression(), spreadsheetInterface);
     }
 
-    private static Double tryParseDouble(String s) {
-        try {
-            return Double.parseDouble(s);
+    public Object interpret(ExpressionTree tree, SpreadsheetInterface spreadsheetInterface) {
+        this.tree = tree;
+        this.spreadsheetInterface = spreadsheetInterface;
+
+        // Children are always stored before their parents, so evaluating the nodes in order has every operand ready
+        // without recursing, however deeply the expression is nested
+        values = new Object[tree.size()];
+        for (int node = 0; node < values.length; node++) {
+            values[node] = evaluate(node);
         }
-        catch (NumberFormatException ex) {
+
+        Object result = values[tree.getRoot()];
+        if (result instanceof InterpreterError interpreterError) {
+            error = interpreterError;
             return null;
         }
+        return result;
     }
 
-    Object evaluate(Expression expression) {
-        return expression.visit(this);
+    private Object evaluate(int node) {
+        return switch (tree.getOpcode(node)) {
+            case NUMBER -> tree.getNumber(node);
+            case STRING -> tree.getString(node);
+            case BOOLEAN -> tree.getBoolean(node);
+            case CELL -> evaluateCell(tree.getAddress(node));
+            case RANGE -> new SILRange(CellCode.fromAddress(tree.getAddress(node)), CellCode.fromAddress(tree.getEndAddress(node)));
+            case CALL -> evaluateCall(node);
+            case ERROR -> tree.getError(node);
+            case NOT -> evaluateNot(values[tree.getLeft(node)]);
+            default -> evaluateBinary(node);
+        };
     }
 
-    @Override
-    public Object visit(Binary binary) {
-        Object left = evaluate(binary.left());
-        Object right = evaluate(binary.right());
+    private Object evaluateBinary(int node) {
+        Object left = values[tree.getLeft(node)];
+        if (left instanceof InterpreterError) {
+            return left;
+        }
+        Object right = values[tree.getRight(node)];
+        if (right instanceof InterpreterError) {
+            return right;
+        }
 
-        switch (binary.operator().type()) {
-            case PLUS -> {
+        switch (tree.getOpcode(node)) {
+            case ADD -> {
                 if (left instanceof Double a && right instanceof Double b) {
                     return a + b;
                 } else if ((left instanceof String || left instanceof Double) && (right instanceof String || right instanceof Double)) {
-                    String a = left.toString();
-                    String b = right.toString();
-                    DecimalFormat formatter = new DecimalFormat("#.######");
-                    if (left instanceof Double d) {
-                        a = formatter.format(d);
-                    }
-                    if (right instanceof Double d) {
-                        b = formatter.format(d);
-                    }
+                    String a = left instanceof Double d ? NumberFormatter.GENERAL.format(d) : left.toString();
+                    String b = right instanceof Double d ? NumberFormatter.GENERAL.format(d) : right.toString();
                     return a + b;
                 }
+                return InterpreterError.INV_OP;
             }
-            case MINUS -> {
+            case SUBTRACT -> {
                 return implementDoubleOperator(left, right, (a, b) -> a - b);
             }
-            case ASTERISK -> {
+            case MULTIPLY -> {
                 return implementDoubleOperator(left, right, (a, b) -> a * b);
             }
-            case SLASH -> {
+            case DIVIDE -> {
                 return implementDoubleOperator(left, right, (a, b) -> a / b);
             }
             case EQUAL -> {
                 return Objects.equals(left, right);
             }
-            case EXCLAMATION_EQUAL -> {
+            case NOT_EQUAL -> {
                 return !Objects.equals(left, right);
             }
             case LESSER_THAN -> {
@@ -155,75 +193,63 @@ public class SILInterpreter implements Visitor<Object> {
             }
         }
 
-        throw new InterpreterException(InterpreterError.NONE);
+        return InterpreterError.INV_OP;
     }
 
-    private Double implementDoubleOperator(Object left, Object right, BinaryOperator<Double> operator) {
+    private Object implementDoubleOperator(Object left, Object right, BinaryOperator<Double> operator) {
         if (left instanceof Double a && right instanceof Double b) {
             return operator.apply(a, b);
-        } else {
-            throw new InterpreterException(InterpreterError.INV_OP);
         }
+
+        return InterpreterError.INV_OP;
     }
 
-    private boolean implementComparisonOperator(Object left, Object right, BiFunction<Double, Double, Boolean> operator) {
+    private Object implementComparisonOperator(Object left, Object right, BiFunction<Double, Double, Boolean> operator) {
         if (left instanceof Double a && right instanceof Double b) {
             return operator.apply(a, b);
-        } else {
-            throw new InterpreterException(InterpreterError.INV_OP);
         }
-    }
 
-    @Override
-    public Object visit(Unary unary) {
-        if (unary.operator().type() == TokenType.EXCLAMATION) {
-            Object value = evaluate(unary.expression());
-            if (value instanceof Boolean b) {
-                return !b;
-            }
+        return InterpreterError.INV_OP;
+    }
 
-            throw new InterpreterException(InterpreterError.INV_OP);
+    private Object evaluateNot(Object value) {
+        if (value instanceof Boolean b) {
+            return !b;
         }
 
-        throw new InterpreterException(InterpreterError.NONE);
+        return value instanceof InterpreterError ? value : InterpreterError.INV_OP;
     }
 
-    @Override
-    public Object visit(Literal literal) {
-        return literal.value();
-    }
-
-    @Override
-    public Object visit(Cell cell) {
-        if (cell.cellCode().equals(spreadsheetInterface.getCellCode())){
-            throw new InterpreterException(InterpreterError.SELF_REF);
+    private Object evaluateCell(long address) {
+        if (address == spreadsheetInterface.getCellAddress()) {
+            return InterpreterError.SELF_REF;
         }
 
-        String value = spreadsheetInterface.getValueFromCell(cell.cellCode());
-        Double number = tryParseDouble(value);
-        if (number != null && !value.contains("f") && !value.contains("d") && !value.contains("e")) {
-            return number;
-        } else {
-            return value;
-        }
+        CellValue value = spreadsheetInterface.getValueFromCell(CellAddress.getX(address), CellAddress.getY(address));
+        return value != null ? value.toObject() : InterpreterError.INV_CELL;
     }
 
-    @Override
-    public Object visit(Group group) {
-        return evaluate(group.expression());
-    }
-
-    @Override
-    public Object visit(Call call) {
-        if (!functions.containsKey(call.functionName())) {
-            throw new InterpreterException(InterpreterError.INV_FUNC);
+    // Calls with up to three arguments go straight to the function's method for that many, without an array
+    private Object evaluateCall(int node) {
+        SILFunction function = tree.getFunction(node);
+        int argumentCount = tree.getArgumentCount(node);
+        for (int i = 0; i < argumentCount; i++) {
+            if (values[tree.getArgument(node, i)] instanceof InterpreterError argumentError) {
+                return argumentError;
+            }
         }
 
-        return functions.get(call.functionName()).call(call.arguments().stream().map(e -> evaluate((Expression) e)).toArray());
-    }
-
-    @Override
-    public Object visit(Range range) {
-        return new SILRange(CellCode.fromString(range.startCellCode()), CellCode.fromString(range.endCellCode()));
+        return switch (argumentCount) {
+            case 1 -> function.call(values[tree.getArgument(node, 0)], spreadsheetInterface);
+            case 2 -> function.call(values[tree.getArgument(node, 0)], values[tree.getArgument(node, 1)], spreadsheetInterface);
+            case 3 -> function.call(values[tree.getArgument(node, 0)], values[tree.getArgument(node, 1)], values[tree.getArgument(node, 2)], spreadsheetInterface);
+            default -> {
+                Object[] arguments = new Object[argumentCount];
+                for (int i = 0; i < argumentCount; i++) {
+                    arguments[i] = values[tree.getArgument(node, i)];
+                }
+                yield function.call(arguments, spreadsheetInterface);
+            }
+        };
     }
 }
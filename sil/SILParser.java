@@ -1,151 +1,213 @@
 package sil;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 import static sil.TokenType.*;
 
+// Parses binary operators by precedence climbing, writing the nodes into an ExpressionTree.
 public class SILParser {
-    private final List<Token> tokens;
+    // Nesting deeper than this is reported rather than risking a stack overflow
+    private static final int MAX_DEPTH = 256;
+    private static final int[] precedences = new int[TokenType.values().length];
+    private static final Opcode[] binaryOpcodes = new Opcode[TokenType.values().length];
+
+    static {
+        addBinaryOperator(EQUAL, Opcode.EQUAL, 1);
+        addBinaryOperator(EXCLAMATION_EQUAL, Opcode.NOT_EQUAL, 1);
+        addBinaryOperator(LESSER_THAN, Opcode.LESSER_THAN, 2);
+        addBinaryOperator(GREATER_THAN, Opcode.GREATER_THAN, 2);
+        addBinaryOperator(LESSER_EQUAL, Opcode.LESSER_EQUAL, 2);
+        addBinaryOperator(GREATER_EQUAL, Opcode.GREATER_EQUAL, 2);
+        addBinaryOperator(PLUS, Opcode.ADD, 3);
+        addBinaryOperator(MINUS, Opcode.SUBTRACT, 3);
+        addBinaryOperator(ASTERISK, Opcode.MULTIPLY, 4);
+        addBinaryOperator(SLASH, Opcode.DIVIDE, 4);
+    }
+
+    private final TokenList tokens;
+    private final ExpressionTree tree = new ExpressionTree();
     private int current;
+    private int depth;
     public ParserError error = ParserError.NONE;
 
-    public SILParser(List<Token> tokens) {
+    public SILParser(TokenList tokens) {
         this.tokens = tokens;
     }
 
-    public Expression parse() {
-        return expressionRule();
+    private static void addBinaryOperator(TokenType type, Opcode opcode, int precedence) {
+        precedences[type.ordinal()] = precedence;
+        binaryOpcodes[type.ordinal()] = opcode;
     }
 
-    private Expression expressionRule() {
-        return equalityRule();
-    }
-
-    private Expression equalityRule() {
-        return binaryRule(this::comparisonRule, EQUAL, EXCLAMATION_EQUAL);
-    }
-
-    private Expression comparisonRule() {
-        return binaryRule(this::addSubRule, LESSER_THAN, GREATER_THAN, LESSER_EQUAL, GREATER_EQUAL);
-    }
+    public ExpressionTree parse() {
+        tree.setRoot(expressionRule(0));
+        if (error == ParserError.NONE && !isAtEnd()) {
+            error = ParserError.UNX_TOKEN;
+        }
 
-    private Expression addSubRule() {
-        return binaryRule(this::mulDivRule, PLUS, MINUS);
+        tree.trim();
+        return tree;
     }
 
-    private Expression mulDivRule() {
-        return binaryRule(this::unaryRule, ASTERISK, SLASH);
-    }
+    // Parses operands joined by operators that bind tighter than the given precedence, grouping operators of the same
+    // precedence from the left
+    private int expressionRule(int precedence) {
+        if (!enterRule()) {
+            return ExpressionTree.NONE;
+        }
 
-    private Expression binaryRule(Function<Expression> leftRule, TokenType ...types) {
-        Expression left = leftRule.call();
+        int left = unaryRule();
 
-        if (matchNextToken(types)) {
-            Token operator = previousToken();
-            Expression right = binaryRule(leftRule, types);
-            return new Expression.Binary(operator, left, right);
+        while (precedences[tokens.getType(current).ordinal()] > precedence) {
+            TokenType operator = tokens.getType(current++);
+            int right = expressionRule(precedences[operator.ordinal()]);
+            left = tree.add(binaryOpcodes[operator.ordinal()], left, right, 0);
         }
 
+        depth--;
         return left;
     }
 
-    private Expression unaryRule() {
+    private int unaryRule() {
         if (matchNextToken(EXCLAMATION)) {
-            return new Expression.Unary(previousToken(), unaryRule());
+            if (!enterRule()) {
+                return ExpressionTree.NONE;
+            }
+
+            int operand = tree.add(Opcode.NOT, unaryRule(), ExpressionTree.NONE, 0);
+            depth--;
+            return operand;
         }
         return primaryRule();
     }
 
-    private Expression primaryRule() {
-        if (matchNextToken(NUMBER, STRING)) {
-            return new Expression.Literal(previousToken().value());
+    private boolean enterRule() {
+        if (depth == MAX_DEPTH) {
+            error = ParserError.MAX_DEPTH;
+            return false;
+        }
+
+        depth++;
+        return true;
+    }
+
+    private int primaryRule() {
+        if (matchNextToken(NUMBER)) {
+            return tree.add(Opcode.NUMBER, ExpressionTree.NONE, ExpressionTree.NONE, Double.doubleToRawLongBits(tokens.getNumber(current - 1)));
+        } else if (matchNextToken(STRING)) {
+            return tree.add(Opcode.STRING, ExpressionTree.NONE, ExpressionTree.NONE, tree.addString(tokens.getString(current - 1)));
         } else if (matchNextToken(CELL)) {
             if (isNextToken(DOT_DOT)) {
                 return rangeRule();
             }
-            return new Expression.Cell(previousToken().lexeme());
+            return tree.add(Opcode.CELL, ExpressionTree.NONE, ExpressionTree.NONE, tokens.getAddress(current - 1));
         } else if (matchNextToken(TRUE, FALSE)) {
-            return new Expression.Literal(previousToken().type() == TRUE);
+            return tree.add(Opcode.BOOLEAN, ExpressionTree.NONE, ExpressionTree.NONE, tokens.getType(current - 1) == TRUE ? 1 : 0);
         } else if (matchNextToken(PAREN_LEFT)) {
             return groupRule();
         } else if (isNextToken(IDENTIFIER)) {
             return callRule();
         }
 
-        error = ParserError.UNX_TOKEN;
-        return null;
+        setError(ParserError.UNX_TOKEN);
+        return ExpressionTree.NONE;
     }
 
-    private Expression rangeRule() {
-        String startCellCode = previousToken().lexeme();
+    private int rangeRule() {
+        long startAddress = tokens.getAddress(current - 1);
         matchNextToken(DOT_DOT);
 
         if (!matchNextToken(CELL)) {
-            error = ParserError.UNX_TOKEN;
-            return null;
+            setError(ParserError.UNX_TOKEN);
+            return ExpressionTree.NONE;
         }
 
-        String endCellCode = previousToken().lexeme();
-        return new Expression.Range(startCellCode, endCellCode);
+        long endAddress = tokens.getAddress(current - 1);
+        return tree.add(Opcode.RANGE, (int) (endAddress >>> 32), (int) endAddress, startAddress);
     }
 
-    private Expression callRule() {
-        String functionName = readToken().lexeme();
+    // Functions are looked up and their arguments checked once here, so a call that can never succeed is stored as the
+    // error it evaluates to
+    private int callRule() {
+        SILFunction function = SILInterpreter.getFunction(tokens.getLexeme(current++));
         forceMatchNextToken(PAREN_LEFT, ParserError.UNX_TOKEN);
-        ArrayList<Expression> arguments = new ArrayList<>();
-        if (matchNextToken(PAREN_RIGHT)) {
-            return new Expression.Call(functionName, arguments);
+        int[] arguments = new int[4];
+        int count = 0;
+
+        if (!matchNextToken(PAREN_RIGHT)) {
+            do {
+                if (count == arguments.length) {
+                    arguments = Arrays.copyOf(arguments, count * 2);
+                }
+                arguments[count++] = expressionRule(0);
+            } while (matchNextToken(COMMA));
+
+            forceMatchNextToken(PAREN_RIGHT, ParserError.NO_PAREN);
         }
 
-        do {
-            arguments.add(expressionRule());
-        } while (matchNextToken(COMMA));
-
-        return new Expression.Call(functionName, arguments);
+        int firstArgument = tree.addArguments(arguments, count);
+        InterpreterError callError = checkCall(function, arguments, count);
+        if (callError != InterpreterError.NONE) {
+            return tree.add(Opcode.ERROR, firstArgument, count, callError.ordinal());
+        }
+        return tree.add(Opcode.CALL, firstArgument, count, tree.addFunction(function));
     }
 
-    private Expression groupRule() {
-        Expression expression = expressionRule();
-        forceMatchNextToken(PAREN_RIGHT, ParserError.NO_PAREN);
-        return new Expression.Group(expression);
+    private InterpreterError checkCall(SILFunction function, int[] arguments, int count) {
+        if (function == null) {
+            return InterpreterError.INV_FUNC;
+        } else if (!function.checkArgumentCount(count)) {
+            return InterpreterError.INV_ARGS;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (arguments[i] != ExpressionTree.NONE && !function.checkArgumentExpression(i, tree.getOpcode(arguments[i]))) {
+                return InterpreterError.INV_TYPE;
+            }
+        }
+        return InterpreterError.NONE;
     }
 
-    private Token readToken() {
-        Token token = tokens.get(current);
-        current++;
-        return token;
+    private int groupRule() {
+        int expression = expressionRule(0);
+        forceMatchNextToken(PAREN_RIGHT, ParserError.NO_PAREN);
+        return expression;
     }
 
     private void forceMatchNextToken(TokenType type, ParserError errorType) {
         if (!matchNextToken(type)) {
-            error = errorType;
+            setError(errorType);
         }
     }
 
-    private Token peekToken() {
-        return tokens.get(current);
+    // Once a rule is too deeply nested, the tokens left unparsed behind it would only report misleading errors
+    private void setError(ParserError error) {
+        if (this.error != ParserError.MAX_DEPTH) {
+            this.error = error;
+        }
     }
 
     private boolean isNextToken(TokenType ...types) {
-        return Arrays.stream(types).anyMatch(type -> type == peekToken().type());
+        TokenType next = tokens.getType(current);
+        for (TokenType type : types) {
+            if (type == next) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     private boolean matchNextToken(TokenType ...types) {
         if (isNextToken(types)) {
-            readToken();
+            current++;
             return true;
         }
 
         return false;
     }
 
-    private Token previousToken() {
-        return tokens.get(current - 1);
-    }
-
     private boolean isAtEnd() {
-        return peekToken().type() == EOF;
+        return tokens.getType(current) == EOF;
     }
 }
@@ -6,4 +6,48 @@ public record SILRange(CellCode start, CellCode end) {
     public CellCode[] getCellsInRange() {
         return CellCode.getRange(start, end);
     }
+
+    public int size() {
+        int width = end.x() - start.x() + 1;
+        int height = end.y() - start.y() + 1;
+        return width > 0 && height > 0 ? width * height : 0;
+    }
+
+    // Returns a cursor over the cells in the range, row by row, which does not allocate for each cell
+    public Cursor cursor() {
+        return new Cursor(this);
+    }
+
+    public static class Cursor {
+        private final int startX;
+        private final int endX;
+        private final int endY;
+        private int x;
+        private int y;
+
+        private Cursor(SILRange range) {
+            startX = range.start.x();
+            endX = range.end.x();
+            endY = range.end.y();
+            x = startX - 1;
+            y = startX <= endX ? range.start.y() : endY + 1;
+        }
+
+        // Moves to the next cell in the range, returning false once every cell has been visited
+        public boolean next() {
+            if (++x > endX) {
+                x = startX;
+                y++;
+            }
+            return y <= endY;
+        }
+
+        public int x() {
+            return x;
+        }
+
+        public int y() {
+            return y;
+        }
+    }
 }
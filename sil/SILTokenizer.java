@@ -1,167 +1,212 @@
 package sil;
 
-import java.util.*;
+import subsheet.CellAddress;
+
 import static sil.TokenType.*;
 
 public class SILTokenizer {
+    private static final byte OTHER = 0;
+    private static final byte WHITESPACE = 1;
+    private static final byte DIGIT = 2;
+    private static final byte UPPER = 3;
+    private static final byte LOWER = 4;
+    private static final byte QUOTE = 5;
+    private static final byte DOT = 6;
+    private static final byte OPERATOR = 7;
+
+    // The class of every ASCII character, the token of single character operators, and the second character and
+    // token of operators that can be followed by one
+    private static final byte[] classes = new byte[128];
+    private static final TokenType[] operators = new TokenType[128];
+    private static final char[] compoundSeconds = new char[128];
+    private static final TokenType[] compoundOperators = new TokenType[128];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            classes[c] = DIGIT;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            classes[c] = UPPER;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            classes[c] = LOWER;
+        }
+        classes[' '] = classes['\t'] = classes['\r'] = classes['\n'] = WHITESPACE;
+        classes['"'] = QUOTE;
+        classes['.'] = DOT;
+
+        addOperator('+', PLUS);
+        addOperator('-', MINUS);
+        addOperator('*', ASTERISK);
+        addOperator('/', SLASH);
+        addOperator('>', GREATER_THAN);
+        addOperator('<', LESSER_THAN);
+        addOperator('(', PAREN_LEFT);
+        addOperator(')', PAREN_RIGHT);
+        addOperator('=', EQUAL);
+        addOperator(',', COMMA);
+        addOperator('!', EXCLAMATION);
+        addCompoundOperator('>', '=', GREATER_EQUAL);
+        addCompoundOperator('<', '=', LESSER_EQUAL);
+        addCompoundOperator('!', '=', EXCLAMATION_EQUAL);
+    }
+
     private final String code;
-    private final List<Token> tokens = new ArrayList<>();
+    private final TokenList tokens;
     private int start;
     private int current;
     public TokenizerError error = TokenizerError.NONE;
 
-    private static final HashMap<Character, TokenType> operators = new HashMap<>();
-    private static final HashMap<String, TokenType> compoundOperators = new HashMap<>();
-    private static final HashMap<String, TokenType> keywords = new HashMap<>();
+    public SILTokenizer(String code) {
+        this.code = code;
+        tokens = new TokenList(code);
+    }
 
-    static {
-        operators.put('+', PLUS);
-        operators.put('-', MINUS);
-        operators.put('*', ASTERISK);
-        operators.put('/', SLASH);
-        operators.put('>', GREATER_THAN);
-        operators.put('<', LESSER_THAN);
-        operators.put('(', PAREN_LEFT);
-        operators.put(')', PAREN_RIGHT);
-        operators.put('=', EQUAL);
-        operators.put(',', COMMA);
-        operators.put('!', EXCLAMATION);
-        compoundOperators.put(">=", GREATER_EQUAL);
-        compoundOperators.put("<=", LESSER_EQUAL);
-        compoundOperators.put("!=", EXCLAMATION_EQUAL);
-        compoundOperators.put("..", DOT_DOT);
-        keywords.put("True", TRUE);
-        keywords.put("False", FALSE);
+    private static void addOperator(char c, TokenType type) {
+        classes[c] = OPERATOR;
+        operators[c] = type;
     }
 
-    public SILTokenizer(String code) {
-        this.code = code;
+    private static void addCompoundOperator(char first, char second, TokenType type) {
+        compoundSeconds[first] = second;
+        compoundOperators[first] = type;
     }
 
-    public List<Token> tokenize() {
+    public TokenList tokenize() {
         while (current < code.length()) {
             readToken();
             start = current;
         }
 
-        addToken(EOF);
+        tokens.add(EOF, current, current);
 
         return tokens;
     }
 
     private void readToken() {
         char c = readChar();
-        if (c == '"') {
-            readString();
-        }
-        else if (isCharAsciiDigit(c) || (c == '.' && peekChar() != '.')) {
-            readNumber();
-        }
-        else if (c >= 'A' && c <= 'Z' && ((peekChar() >= 'A' && peekChar() <= 'Z') || isCharAsciiDigit(peekChar()))) {
-            readCell();
-        }
-        else if (isCharAsciiLetter(c)) {
-            readIdentifier();
-        }
-        else if (compoundOperators.keySet().stream().anyMatch(o -> c == o.charAt(0))) {
-            String operator = compoundOperators.keySet().stream().filter(o -> c == o.charAt(0)).findAny().get();
-            if (matchChar(operator.charAt(1))) {
-                addToken(compoundOperators.get(operator));
-            } else if (operators.containsKey(c)) {
-                addToken(operators.get(c));
+        switch (classOf(c)) {
+            case WHITESPACE -> { }
+            case QUOTE -> readString();
+            case DIGIT -> readNumber();
+            case DOT -> {
+                if (matchChar('.')) {
+                    addToken(DOT_DOT);
+                } else {
+                    readNumber();
+                }
             }
-        }
-        else if (operators.containsKey(c)) {
-            addToken(operators.get(c));
-        }
-        else if (c != '\r' && c != '\n' && c != '\t' && c != ' ') {
-            error = TokenizerError.INV_CHAR;
+            case UPPER -> {
+                byte next = classOf(peekChar());
+                if (next == UPPER || next == DIGIT) {
+                    readCell();
+                } else {
+                    readIdentifier();
+                }
+            }
+            case LOWER -> readIdentifier();
+            case OPERATOR -> {
+                if (compoundOperators[c] != null && matchChar(compoundSeconds[c])) {
+                    addToken(compoundOperators[c]);
+                } else {
+                    addToken(operators[c]);
+                }
+            }
+            default -> error = TokenizerError.INV_CHAR;
         }
     }
 
     private void readString() {
-        while (current < code.length() && peekChar() != '"') {
+        while (current < code.length() && code.charAt(current) != '"') {
+            current++;
+        }
+        if (current < code.length()) {
             current++;
         }
-        current++;
 
-        addToken(STRING, code.substring(start + 1, current - 1));
+        addToken(STRING);
     }
 
+    // A number is made of digits and at most one decimal point, which is checked here so that its value can be parsed
+    // only when needed
     private void readNumber() {
-        while (current < code.length() && (isCharAsciiDigit(peekChar()) || peekChar() == '.')) {
+        while (classOf(peekChar()) == DIGIT || peekChar() == '.') {
             current++;
         }
 
-        try {
-            addToken(NUMBER, Double.parseDouble(code.substring(start, current)));
+        int points = 0;
+        for (int i = start; i < current; i++) {
+            if (code.charAt(i) == '.') {
+                points++;
+            }
         }
-        catch (NumberFormatException ex) {
+        if (points > 1 || current - start == points) {
             error = TokenizerError.INV_NUM;
+            return;
         }
+
+        addToken(NUMBER);
     }
 
     private void readCell() {
-        while (current < code.length() && peekChar() >= 'A' && peekChar() <= 'Z') {
+        while (classOf(peekChar()) == UPPER) {
             current++;
         }
 
-        if (current >= code.length() || !isCharAsciiDigit(peekChar())) {
+        if (classOf(peekChar()) != DIGIT) {
             error = TokenizerError.INV_CELL;
             return;
         }
 
-        while (current < code.length() && isCharAsciiDigit(peekChar())) {
+        while (classOf(peekChar()) == DIGIT) {
             current++;
         }
 
+        if (CellAddress.parse(code, start, current) == CellAddress.INVALID) {
+            error = TokenizerError.INV_CELL;
+            return;
+        }
+
         addToken(CELL);
     }
 
     private void readIdentifier() {
-        while (current < code.length() && ((peekChar() >= 'a' && peekChar() <= 'z') || isCharAsciiDigit(peekChar()))) {
+        while (classOf(peekChar()) == LOWER || classOf(peekChar()) == DIGIT) {
             current++;
         }
 
-        if (keywords.containsKey(code.substring(start, current))) {
-            addToken(keywords.get(code.substring(start, current)));
-            return;
+        if (code.startsWith("True", start) && current - start == 4) {
+            addToken(TRUE);
+        } else if (code.startsWith("False", start) && current - start == 5) {
+            addToken(FALSE);
+        } else {
+            addToken(IDENTIFIER);
         }
-
-        addToken(IDENTIFIER);
     }
 
     private void addToken(TokenType type) {
-        tokens.add(new Token(code.substring(start, current), type, null));
-    }
-
-    private void addToken(TokenType type, Object literal) {
-        tokens.add(new Token(code.substring(start, current), type, literal));
+        tokens.add(type, start, current);
     }
 
     private char readChar() {
-        char c = code.charAt(current);
-        current++;
-        return c;
+        return code.charAt(current++);
     }
 
     private boolean matchChar(char c) {
-        if (code.charAt(current) == c) {
-            readChar();
+        if (current < code.length() && code.charAt(current) == c) {
+            current++;
             return true;
         }
 
         return false;
     }
 
+    // Returns the next character, or 0 at the end of the code
     private char peekChar() {
-        return code.charAt(current);
+        return current < code.length() ? code.charAt(current) : 0;
     }
 
-    private boolean isCharAsciiDigit(char c) {
-        return c >= '0' && c <= '9';
-    }
-    private boolean isCharAsciiLetter(char c) {
-        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    private static byte classOf(char c) {
+        return c < 128 ? classes[c] : OTHER;
     }
 }
@@ -1,5 +0,0 @@
-package sil;
-
-public record Token(String lexeme, TokenType type, Object value) {
-
-}
\ No newline at end of file
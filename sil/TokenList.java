@@ -0,0 +1,71 @@
+package sil;
+
+import java.util.Arrays;
+import subsheet.CellAddress;
+
+// The tokens of a formula stored as parallel arrays of types and positions in the code, so tokenizing doesn't create
+// an object for every token. Lexemes and literal values are only created when asked for.
+public class TokenList {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final String code;
+    private byte[] types = new byte[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int size;
+
+    TokenList(String code) {
+        this.code = code;
+    }
+
+    void add(TokenType type, int start, int end) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenType getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    public String getLexeme(int index) {
+        return code.substring(starts[index], ends[index]);
+    }
+
+    public double getNumber(int index) {
+        return Double.parseDouble(getLexeme(index));
+    }
+
+    // Returns the text of a string literal without its quotes
+    public String getString(int index) {
+        int end = ends[index] > starts[index] + 1 && code.charAt(ends[index] - 1) == '"' ? ends[index] - 1 : ends[index];
+        return code.substring(starts[index] + 1, end);
+    }
+
+    public long getAddress(int index) {
+        return CellAddress.parse(code, starts[index], ends[index]);
+    }
+}
@@ -7,12 +7,13 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.io.*;
+import sil.NumberFormatter;
 
 public class AppMenuBar extends JMenuBar {
     private static final FileFilter spreadsheetFileFilter = new FileFilter() {
         @Override
         public boolean accept(File f) {
-            return f.getName().endsWith(".ss");
+            return f.getName().endsWith(WorkbookFile.EXTENSION);
         }
 
         @Override
@@ -20,6 +21,18 @@ public class AppMenuBar extends JMenuBar {
             return "subsheet.subsheet.Spreadsheet Files (*.ss)";
         }
     };
+    private static final FileFilter delimitedFileFilter = new FileFilter() {
+        @Override
+        public boolean accept(File f) {
+            String name = f.getName().toLowerCase();
+            return f.isDirectory() || name.endsWith(".csv") || name.endsWith(".tsv");
+        }
+
+        @Override
+        public String getDescription() {
+            return "CSV and TSV Files (*.csv, *.tsv)";
+        }
+    };
 
     public AppMenuBar() {
         JMenu fileMenu = new JMenu("File");
@@ -28,6 +41,9 @@ public class AppMenuBar extends JMenuBar {
         fileMenu.add(createMenu("Save", this::onSave, "ctrl S"));
         fileMenu.add(createMenu("Save As", this::onSaveAs));
         fileMenu.add(createMenu("Open", this::onOpen));
+        fileMenu.addSeparator();
+        fileMenu.add(createMenu("Import CSV/TSV", this::onImport));
+        fileMenu.add(createMenu("Export CSV/TSV", this::onExport));
         add(fileMenu);
 
         JMenu cellMenu = new JMenu("Cell");
@@ -35,6 +51,8 @@ public class AppMenuBar extends JMenuBar {
         cellMenu.add(createMenu("Format Plain", e -> formatCell(Font.PLAIN)));
         cellMenu.add(createMenu("Format Bold", e -> formatCell(Font.BOLD), "ctrl B"));
         cellMenu.add(createMenu("Format Italic", e -> formatCell(Font.ITALIC), "ctrl I"));
+        cellMenu.addSeparator();
+        cellMenu.add(createMenu("Number Format", this::onNumberFormat));
         add(cellMenu);
     }
 
@@ -52,7 +70,22 @@ public class AppMenuBar extends JMenuBar {
     }
 
     private void formatCell(int style) {
-        Main.getCurrentSpreadsheet().getSelectedCell().setStyle(style);
+        Main.getCurrentSpreadsheet().toggleSelectedCellStyle(style);
+    }
+
+    private void onNumberFormat(ActionEvent actionEvent) {
+        Spreadsheet spreadsheet = Main.getCurrentSpreadsheet();
+        String pattern = (String) JOptionPane.showInputDialog(null, "Number format, ex. #,##0.00 or 0%:", "Number Format",
+                JOptionPane.PLAIN_MESSAGE, null, null, spreadsheet.getSelectedCellNumberFormat().getPattern());
+        if (pattern == null) {
+            return;
+        }
+
+        try {
+            spreadsheet.setSelectedCellNumberFormat(NumberFormatter.get(pattern.isBlank() ? NumberFormatter.GENERAL_PATTERN : pattern.strip()));
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(null, ex.getMessage(), "Number Format", JOptionPane.ERROR_MESSAGE);
+        }
     }
 
     private void onNew(ActionEvent actionEvent) {
@@ -66,11 +99,7 @@ public class AppMenuBar extends JMenuBar {
         }
 
         try {
-            FileOutputStream fileStream = new FileOutputStream(Main.savePath);
-            ObjectOutputStream stream = new ObjectOutputStream(fileStream);
-            stream.writeObject(Main.getProjectObject());
-            stream.close();
-            fileStream.close();
+            Main.saveSpreadsheet(Main.savePath);
         } catch (IOException ex) {
             System.out.println("IOException: " + ex.getMessage());
         }
@@ -83,16 +112,11 @@ public class AppMenuBar extends JMenuBar {
         if (fileChooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
             String filePath = file.getAbsolutePath();
-            if (!file.getName().endsWith(".ss")) {
-                filePath += ".ss";
+            if (!file.getName().endsWith(WorkbookFile.EXTENSION)) {
+                filePath += WorkbookFile.EXTENSION;
             }
             try {
-                FileOutputStream fileStream = new FileOutputStream(filePath);
-                ObjectOutputStream stream = new ObjectOutputStream(fileStream);
-                Main.savePath = filePath;
-                stream.writeObject(Main.getProjectObject());
-                stream.close();
-                fileStream.close();
+                Main.saveSpreadsheet(filePath);
             } catch (IOException ex) {
                 System.out.println("IOException: " + ex.getMessage());
             }
@@ -106,15 +130,41 @@ public class AppMenuBar extends JMenuBar {
         if (fileChooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
             try {
-                FileInputStream fileStream = new FileInputStream(file);
-                ObjectInputStream stream = new ObjectInputStream(fileStream);
-                Main.loadProjectObject((ProjectData) stream.readObject(), file.getAbsolutePath());
-                stream.close();
-                fileStream.close();
+                Main.openSpreadsheet(file.getAbsolutePath());
+            } catch (IOException ex) {
+                System.out.println("IOException: " + ex.getMessage());
+            }
+        }
+    }
+
+    private void onImport(ActionEvent actionEvent) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setAcceptAllFileFilterUsed(false);
+        fileChooser.setFileFilter(delimitedFileFilter);
+        if (fileChooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+            try {
+                Main.importSpreadsheet(fileChooser.getSelectedFile().getAbsolutePath());
+            } catch (IOException ex) {
+                System.out.println("IOException: " + ex.getMessage());
+            }
+        }
+    }
+
+    private void onExport(ActionEvent actionEvent) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setAcceptAllFileFilterUsed(false);
+        fileChooser.setFileFilter(delimitedFileFilter);
+        if (fileChooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            String filePath = file.getAbsolutePath();
+            String name = file.getName().toLowerCase();
+            if (!name.endsWith(".csv") && !name.endsWith(".tsv")) {
+                filePath += ".csv";
+            }
+            try {
+                Main.exportSpreadsheet(filePath);
             } catch (IOException ex) {
                 System.out.println("IOException: " + ex.getMessage());
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
             }
         }
     }
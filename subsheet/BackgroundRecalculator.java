@@ -0,0 +1,109 @@
+package subsheet;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Recalculates a sheet model on a background thread so edits don't block the Event Dispatch Thread.
+// All methods must be called on the Event Dispatch Thread, and listeners are notified on it.
+public class BackgroundRecalculator {
+    public interface Listener {
+        void recalculationStarted();
+        void recalculationFinished(List<CellCode> updatedCells);
+    }
+
+    private static class Pass {
+        private final List<CellCode> changedCells;
+        private volatile boolean cancelled;
+
+        private Pass(List<CellCode> changedCells) {
+            this.changedCells = changedCells;
+        }
+    }
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Recalculation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final SheetModel model;
+    private final Listener listener;
+    private final LinkedHashSet<CellCode> changedCells = new LinkedHashSet<>();
+    private Pass currentPass;
+
+    public BackgroundRecalculator(SheetModel model, Listener listener) {
+        this.model = model;
+        this.listener = listener;
+    }
+
+    public void setContent(CellCode cellCode, String content) {
+        edit(() -> {
+            model.updateContent(cellCode, content);
+            changedCells.add(cellCode);
+        });
+    }
+
+    // Runs an edit of the model, first cancelling any recalculation in progress so the edit doesn't wait for it.
+    // A new pass then recalculates the cells changed since the last finished pass.
+    public void edit(Runnable edit) {
+        if (currentPass != null) {
+            currentPass.cancelled = true;
+        }
+
+        edit.run();
+
+        if (!changedCells.isEmpty()) {
+            submit();
+        }
+    }
+
+    public boolean isRecalculating() {
+        return currentPass != null;
+    }
+
+    // Blocks until every submitted pass has finished evaluating, though results are still published later
+    public void awaitIdle() {
+        try {
+            executor.submit(() -> { }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void submit() {
+        Pass pass = new Pass(new ArrayList<>(changedCells));
+        currentPass = pass;
+        executor.execute(() -> run(pass));
+    }
+
+    private void run(Pass pass) {
+        if (pass.cancelled) {
+            return;
+        }
+
+        SheetModel.Recalculation recalculation = model.startRecalculation(pass.changedCells);
+        SwingUtilities.invokeLater(listener::recalculationStarted);
+
+        if (recalculation.run(() -> pass.cancelled)) {
+            SwingUtilities.invokeLater(() -> publish(pass, recalculation));
+        }
+    }
+
+    private void publish(Pass pass, SheetModel.Recalculation recalculation) {
+        if (pass != currentPass) {
+            return;
+        }
+
+        currentPass = null;
+        changedCells.removeAll(pass.changedCells);
+        recalculation.clearPending();
+        listener.recalculationFinished(recalculation.getUpdatedCells());
+    }
+}
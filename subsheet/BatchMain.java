@@ -0,0 +1,110 @@
+package subsheet;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Recalculates workbooks without a user interface, for example on a build server, and writes their values out.
+// Usage: BatchMain [--format csv|tsv|ss] [--output DIR] [--threads N] FILE...
+public class BatchMain {
+    private static final String USAGE = "Usage: BatchMain [--format csv|tsv|ss] [--output DIR] [--threads N] FILE...";
+
+    private record Result(Path input, Path output, int cells, int updatedCells, long loadNanos, long recalculationNanos, long writeNanos) {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        String format = "csv";
+        Path outputDirectory = null;
+        int threads = 1;
+        List<Path> inputs = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format" -> format = args[++i];
+                    case "--output" -> outputDirectory = Path.of(args[++i]);
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    default -> inputs.add(Path.of(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            inputs.clear();
+        }
+
+        if (inputs.isEmpty() || threads < 1 || !(format.equals("csv") || format.equals("tsv") || format.equals("ss"))) {
+            System.out.println(USAGE);
+            System.exit(2);
+        }
+
+        // Files are recalculated concurrently, so each one is recalculated on a single thread unless there is only one
+        boolean parallelRecalculation = threads == 1 || inputs.size() == 1;
+        long started = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> results = new ArrayList<>();
+        for (Path input : inputs) {
+            String outputFormat = format;
+            Path output = getOutputPath(input, outputDirectory, format);
+            results.add(executor.submit(() -> process(input, output, outputFormat, parallelRecalculation)));
+        }
+        executor.shutdown();
+
+        int failures = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                Result result = results.get(i).get();
+                System.out.printf("%s -> %s: %d cells, %d recalculated, load %.1f ms, recalc %.1f ms, write %.1f ms%n",
+                        result.input(), result.output(), result.cells(), result.updatedCells(),
+                        result.loadNanos() / 1e6, result.recalculationNanos() / 1e6, result.writeNanos() / 1e6);
+            } catch (ExecutionException ex) {
+                failures++;
+                System.out.println(inputs.get(i) + ": " + ex.getCause());
+            }
+        }
+        System.out.printf("%d of %d files recalculated in %.1f ms%n", inputs.size() - failures, inputs.size(), (System.nanoTime() - started) / 1e6);
+
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    private static Result process(Path input, Path output, String format, boolean parallelRecalculation) throws IOException {
+        long start = System.nanoTime();
+        SheetModel model;
+        // Every formula is recalculated below, so loading doesn't calculate them first
+        if (input.getFileName().toString().endsWith(WorkbookFile.EXTENSION)) {
+            model = WorkbookJournal.open(input, false);
+        } else {
+            model = DelimitedFile.read(input, DelimitedFile.Format.fromPath(input), Main.ROWS, Main.COLUMNS, parallelRecalculation ? Runtime.getRuntime().availableProcessors() : 1, false);
+        }
+        if (!parallelRecalculation) {
+            model.setParallelism(1);
+        }
+        long loaded = System.nanoTime();
+
+        int updatedCells = model.recalculateAll().size();
+        long recalculated = System.nanoTime();
+
+        if (format.equals("ss")) {
+            WorkbookFile.write(model, output, true);
+        } else {
+            DelimitedFile.write(model, output, format.equals("tsv") ? DelimitedFile.Format.TSV : DelimitedFile.Format.CSV);
+        }
+        long written = System.nanoTime();
+
+        return new Result(input, output, model.getCellCount(), updatedCells, loaded - start, recalculated - loaded, written - recalculated);
+    }
+
+    // Writes next to the input unless an output directory is given, as NAME.recalc.FORMAT
+    private static Path getOutputPath(Path input, Path outputDirectory, String format) {
+        String name = input.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        String baseName = extension > 0 ? name.substring(0, extension) : name;
+        Path directory = outputDirectory != null ? outputDirectory : input.toAbsolutePath().getParent();
+        return directory.resolve(baseName + ".recalc." + format);
+    }
+}
@@ -0,0 +1,67 @@
+package subsheet;
+
+// A cell position packed into a long, with the row in the upper 32 bits and the column in the lower 32 bits,
+// so that sorting addresses orders cells row by row.
+public class CellAddress {
+    public static final long INVALID = -1;
+
+    public static long pack(int x, int y) {
+        return ((long) y << 32) | (x & 0xFFFFFFFFL);
+    }
+
+    public static int getX(long address) {
+        return (int) address;
+    }
+
+    public static int getY(long address) {
+        return (int) (address >>> 32);
+    }
+
+    // Parses a reference such as "B7" or "AA100", returning INVALID if it is malformed or out of range
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    public static long parse(CharSequence text, int start, int end) {
+        int i = start;
+        long x = 0;
+        for (; i < end && text.charAt(i) >= 'A' && text.charAt(i) <= 'Z'; i++) {
+            x = x * 26 + (text.charAt(i) - 'A' + 1);
+            if (x > Integer.MAX_VALUE) {
+                return INVALID;
+            }
+        }
+
+        if (i == start || i == end) {
+            return INVALID;
+        }
+
+        long y = 0;
+        for (; i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++) {
+            y = y * 10 + (text.charAt(i) - '0');
+            if (y > Integer.MAX_VALUE) {
+                return INVALID;
+            }
+        }
+
+        return i == end ? pack((int) x, (int) y) : INVALID;
+    }
+
+    public static String toString(long address) {
+        return toString(getX(address), getY(address));
+    }
+
+    public static String toString(int x, int y) {
+        return getColumnName(x) + y;
+    }
+
+    // Returns the letters of a column, where 1 is "A", 26 is "Z" and 27 is "AA"
+    public static String getColumnName(int x) {
+        char[] letters = new char[7];
+        int start = letters.length;
+        for (int n = x; n > 0; n = (n - 1) / 26) {
+            letters[--start] = (char) ('A' + (n - 1) % 26);
+        }
+        return new String(letters, start, letters.length - start);
+    }
+}
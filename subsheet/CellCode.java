@@ -1,30 +1,40 @@
 package subsheet;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public record CellCode(int x, int y) {
     public static CellCode fromString(String cellCode) {
-        int x = cellCode.charAt(0) - 'A' + 1;
-        int y = Integer.parseInt(String.valueOf(cellCode.charAt(1)));
-        return new CellCode(x, y);
+        long address = CellAddress.parse(cellCode);
+        if (address == CellAddress.INVALID) {
+            throw new IllegalArgumentException("Invalid cell code: " + cellCode);
+        }
+        return fromAddress(address);
+    }
+
+    public static CellCode fromAddress(long address) {
+        return new CellCode(CellAddress.getX(address), CellAddress.getY(address));
+    }
+
+    public long toAddress() {
+        return CellAddress.pack(x, y);
     }
 
     public static CellCode[] getRange(CellCode start, CellCode end) {
-        List<CellCode> range = new ArrayList<>();
+        int width = Math.max(end.x() - start.x() + 1, 0);
+        int height = Math.max(end.y() - start.y() + 1, 0);
+        CellCode[] range = new CellCode[width * height];
+        int i = 0;
 
         for (int y = start.y(); y <= end.y(); y++) {
             for (int x = start.x(); x <= end.x(); x++) {
-                range.add(new CellCode(x, y));
+                range[i++] = new CellCode(x, y);
             }
         }
 
-        return range.toArray(new CellCode[0]);
+        return range;
     }
 
     @Override
     public String toString() {
-        return String.valueOf((char) ('A' + x - 1)) + y;
+        return CellAddress.toString(x, y);
     }
 
     @Override
@@ -0,0 +1,130 @@
+package subsheet;
+
+import sil.CellValue;
+import sil.NumberFormatter;
+import sil.SILFormula;
+
+public class CellData {
+    public static final int STYLE_PLAIN = 0;
+    public static final int STYLE_BOLD = 1;
+    public static final int STYLE_ITALIC = 2;
+
+    // The text shown for a cell along with what it was formatted from, replaced as a whole so a value published by a
+    // recalculation can't be paired with text formatted from the value before it
+    private record DisplayText(String content, CellValue value, NumberFormatter numberFormat, String text) {
+    }
+
+    private final long address;
+    private volatile String content = "";
+    private volatile CellValue value = CellValue.EMPTY;
+    private volatile NumberFormatter numberFormat = NumberFormatter.GENERAL;
+    private volatile DisplayText displayText;
+    private int style = STYLE_PLAIN;
+    private SILFormula formula;
+    private volatile boolean pending;
+    private int evaluationCount;
+    private long evaluationNanos;
+
+    public CellData(long address) {
+        this.address = address;
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    public CellCode getCode() {
+        return CellCode.fromAddress(address);
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    void setContent(String content) {
+        this.content = content;
+    }
+
+    public boolean hasFormula() {
+        return content.startsWith("=");
+    }
+
+    public CellValue getValue() {
+        return value;
+    }
+
+    void setValue(CellValue value) {
+        this.value = value;
+    }
+
+    // Formats the value when it's first shown rather than when it's calculated, and keeps the text until the content,
+    // value or number format changes
+    public String getDisplayText() {
+        String content = this.content;
+        CellValue value = this.value;
+        NumberFormatter numberFormat = this.numberFormat;
+        DisplayText displayText = this.displayText;
+        if (displayText != null && displayText.content == content && displayText.value == value && displayText.numberFormat == numberFormat) {
+            return displayText.text;
+        }
+
+        // Numbers typed in are shown as typed unless the cell has its own format
+        String text = content.startsWith("=") || (value.isNumber() && numberFormat != NumberFormatter.GENERAL) ? value.format(numberFormat) : content;
+        this.displayText = new DisplayText(content, value, numberFormat, text);
+        return text;
+    }
+
+    public NumberFormatter getNumberFormat() {
+        return numberFormat;
+    }
+
+    void setNumberFormat(NumberFormatter numberFormat) {
+        this.numberFormat = numberFormat;
+    }
+
+    public int getStyle() {
+        return style;
+    }
+
+    void setStyle(int style) {
+        this.style = style;
+    }
+
+    SILFormula getFormula() {
+        return formula;
+    }
+
+    void setFormula(SILFormula formula) {
+        this.formula = formula;
+    }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    void setPending(boolean pending) {
+        this.pending = pending;
+    }
+
+    public boolean isBlank() {
+        return content.isEmpty() && style == STYLE_PLAIN && numberFormat == NumberFormatter.GENERAL;
+    }
+
+    public int getEvaluationCount() {
+        return evaluationCount;
+    }
+
+    public long getEvaluationNanos() {
+        return evaluationNanos;
+    }
+
+    void recordEvaluation(long nanos) {
+        evaluationCount++;
+        evaluationNanos += nanos;
+    }
+
+    void resetEvaluationTime() {
+        evaluationCount = 0;
+        evaluationNanos = 0;
+    }
+}
@@ -0,0 +1,16 @@
+package subsheet;
+
+import jdk.jfr.*;
+
+@Name("subsheet.CellEvaluation")
+@Label("Cell Evaluation")
+@Category("Subsheet")
+@Description("Evaluating the formula of a single cell")
+@Enabled(false)
+public class CellEvaluationEvent extends Event {
+    @Label("Cell")
+    public String cell;
+
+    @Label("Formula")
+    public String formula;
+}
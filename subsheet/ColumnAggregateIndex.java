@@ -0,0 +1,185 @@
+package subsheet;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import sil.CellValue;
+
+// Keeps segment trees over the values of each column, so sums and counts over ranges take logarithmic time.
+// Tree nodes are recomputed from their children rather than adjusted by differences, so sums don't drift
+// as values change, and a range only adds up the nodes inside it.
+// Each column is split into blocks of rows that are only allocated once a value is set in them, with a small tree
+// over the totals of the blocks, so memory follows the rows in use rather than the last row written.
+public class ColumnAggregateIndex {
+    private static final int BLOCK_SHIFT = 10;
+    private static final int BLOCK_ROWS = 1 << BLOCK_SHIFT;
+
+    // A segment tree over a fixed number of leaves, each holding a sum, a count of numbers and a count of other values
+    private static class Totals {
+        private final int capacity;
+        private final double[] sums;
+        private final int[] numbers;
+        private final int[] others;
+
+        Totals(int leaves) {
+            int capacity = 1;
+            while (capacity < leaves) {
+                capacity *= 2;
+            }
+            this.capacity = capacity;
+            sums = new double[capacity * 2];
+            numbers = new int[capacity * 2];
+            others = new int[capacity * 2];
+        }
+
+        void set(int leaf, double sum, int numberCount, int otherCount) {
+            int i = capacity + leaf;
+            sums[i] = sum;
+            numbers[i] = numberCount;
+            others[i] = otherCount;
+
+            for (i >>= 1; i >= 1; i >>= 1) {
+                sums[i] = sums[2 * i] + sums[2 * i + 1];
+                numbers[i] = numbers[2 * i] + numbers[2 * i + 1];
+                others[i] = others[2 * i] + others[2 * i + 1];
+            }
+        }
+
+        // Adds the totals of leaves start to end, inclusive, to the given totals
+        void query(int startLeaf, int endLeaf, double[] sum, int[] counts) {
+            int start = capacity + startLeaf;
+            int end = capacity + endLeaf + 1;
+
+            while (start < end) {
+                if ((start & 1) == 1) {
+                    add(start++, sum, counts);
+                }
+                if ((end & 1) == 1) {
+                    add(--end, sum, counts);
+                }
+                start >>= 1;
+                end >>= 1;
+            }
+        }
+
+        boolean isEmpty() {
+            return numbers[1] == 0 && others[1] == 0;
+        }
+
+        private void add(int i, double[] sum, int[] counts) {
+            sum[0] += sums[i];
+            counts[0] += numbers[i];
+            counts[1] += others[i];
+        }
+    }
+
+    private static class ColumnTree {
+        private final Totals[] blocks;
+        private final Totals blockTotals;
+
+        ColumnTree(int blockCount) {
+            blocks = new Totals[blockCount];
+            blockTotals = new Totals(blockCount);
+        }
+
+        synchronized void set(int y, CellValue value) {
+            int block = (y - 1) >> BLOCK_SHIFT;
+            Totals rows = blocks[block];
+            if (rows == null) {
+                if (value.isEmpty()) {
+                    return;
+                }
+                rows = new Totals(BLOCK_ROWS);
+                blocks[block] = rows;
+            }
+
+            boolean number = value.isNumber();
+            rows.set((y - 1) & (BLOCK_ROWS - 1), number ? value.getNumber() : 0, number ? 1 : 0, number || value.isEmpty() ? 0 : 1);
+            blockTotals.set(block, rows.sums[1], rows.numbers[1], rows.others[1]);
+
+            // Blocks that no longer hold any values are dropped, recomputing their total from scratch when reused
+            if (rows.isEmpty()) {
+                blocks[block] = null;
+            }
+        }
+
+        // Adds the sum and counts of rows startY to endY to the given totals
+        synchronized void query(int startY, int endY, double[] sum, int[] counts) {
+            int startBlock = (startY - 1) >> BLOCK_SHIFT;
+            int endBlock = (endY - 1) >> BLOCK_SHIFT;
+            int startRow = (startY - 1) & (BLOCK_ROWS - 1);
+            int endRow = (endY - 1) & (BLOCK_ROWS - 1);
+
+            if (startBlock == endBlock) {
+                queryBlock(startBlock, startRow, endRow, sum, counts);
+                return;
+            }
+
+            queryBlock(startBlock, startRow, BLOCK_ROWS - 1, sum, counts);
+            if (startBlock + 1 < endBlock) {
+                blockTotals.query(startBlock + 1, endBlock - 1, sum, counts);
+            }
+            queryBlock(endBlock, 0, endRow, sum, counts);
+        }
+
+        private void queryBlock(int block, int startRow, int endRow, double[] sum, int[] counts) {
+            if (blocks[block] != null) {
+                blocks[block].query(startRow, endRow, sum, counts);
+            }
+        }
+    }
+
+    private final int rows;
+    private final AtomicReferenceArray<ColumnTree> columnTrees;
+
+    public ColumnAggregateIndex(int rows, int columns) {
+        this.rows = rows;
+        columnTrees = new AtomicReferenceArray<>(columns + 1);
+    }
+
+    public void set(int x, int y, CellValue value) {
+        ColumnTree tree = columnTrees.get(x);
+        if (tree == null) {
+            if (value.isEmpty()) {
+                return;
+            }
+            columnTrees.compareAndSet(x, null, new ColumnTree(((rows - 1) >> BLOCK_SHIFT) + 1));
+            tree = columnTrees.get(x);
+        }
+
+        tree.set(y, value);
+    }
+
+    // Returns the sum of the numbers in the range, or null if it also contains values that aren't numbers or empty
+    public Double sum(int startX, int startY, int endX, int endY) {
+        double[] sum = new double[1];
+        int[] counts = new int[2];
+        query(startX, startY, endX, endY, sum, counts);
+        return counts[1] == 0 ? sum[0] : null;
+    }
+
+    public int countNumbers(int startX, int startY, int endX, int endY) {
+        int[] counts = new int[2];
+        query(startX, startY, endX, endY, new double[1], counts);
+        return counts[0];
+    }
+
+    public int countNonEmpty(int startX, int startY, int endX, int endY) {
+        int[] counts = new int[2];
+        query(startX, startY, endX, endY, new double[1], counts);
+        return counts[0] + counts[1];
+    }
+
+    private void query(int startX, int startY, int endX, int endY, double[] sum, int[] counts) {
+        startY = Math.max(startY, 1);
+        endY = Math.min(endY, rows);
+        if (startY > endY) {
+            return;
+        }
+
+        for (int x = Math.max(startX, 1); x <= Math.min(endX, columnTrees.length() - 1); x++) {
+            ColumnTree tree = columnTrees.get(x);
+            if (tree != null) {
+                tree.query(startY, endY, sum, counts);
+            }
+        }
+    }
+}
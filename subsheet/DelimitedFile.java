@@ -0,0 +1,371 @@
+package subsheet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import sil.CellValue;
+import sil.NumberFormatter;
+
+// Imports and exports CSV and TSV files in chunks, so only a bounded part of a file is held in memory at once.
+// Imports split the file into chunks of whole records, which can be parsed in parallel and are added to the model in
+// order. Exports format one chunk of rows while the previous one is written.
+public class DelimitedFile {
+    public enum Format {
+        CSV(',', true),
+        TSV('\t', false);
+
+        private final char delimiter;
+        private final boolean quoted;
+
+        Format(char delimiter, boolean quoted) {
+            this.delimiter = delimiter;
+            this.quoted = quoted;
+        }
+
+        public static Format fromPath(Path path) {
+            return path.getFileName().toString().toLowerCase().endsWith(".tsv") ? TSV : CSV;
+        }
+    }
+
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int BYTE_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Export Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The cells of a chunk, addressed relative to its first record
+    private static class ParsedChunk {
+        private int records;
+        private final LongList addresses = new LongList();
+        private final List<String> contents = new ArrayList<>();
+        private final List<CellValue> values = new ArrayList<>();
+    }
+
+    // Reads a file into a new model, parsing chunks on the given number of threads, and calculates its formulas
+    public static SheetModel read(Path path, Format format, int rows, int columns, int parallelism) throws IOException {
+        return read(path, format, rows, columns, parallelism, true);
+    }
+
+    // Reads a file into a new model, leaving its formulas uncalculated unless asked to calculate them, for callers
+    // that recalculate the whole model themselves
+    public static SheetModel read(Path path, Format format, int rows, int columns, int parallelism, boolean calculate) throws IOException {
+        SheetModel model = new SheetModel(rows, columns);
+        List<CellCode> formulaCells = new ArrayList<>();
+        ExecutorService parsers = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+        ArrayDeque<Future<ParsedChunk>> parsing = new ArrayDeque<>();
+        int[] nextRow = { 1 };
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            ByteBuffer bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+            CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+            boolean decoded = false;
+
+            while (!decoded || chars.position() > 0) {
+                if (!decoded) {
+                    decoded = fill(channel, decoder, bytes, chars);
+                }
+                chars.flip();
+
+                int end = decoded ? chars.limit() : findLastRecordEnd(chars, format);
+                if (end == 0 && !decoded) {
+                    // A single record is longer than the buffer
+                    chars = CharBuffer.allocate(chars.capacity() * 2).put(chars);
+                    continue;
+                }
+
+                char[] chunk = new char[end];
+                chars.get(chunk);
+                chars.compact();
+
+                if (parsers != null) {
+                    parsing.add(parsers.submit(() -> parse(chunk, format)));
+                    if (parsing.size() >= parallelism * 2) {
+                        add(model, getParsed(parsing.poll()), nextRow, formulaCells);
+                    }
+                } else {
+                    add(model, parse(chunk, format), nextRow, formulaCells);
+                }
+            }
+
+            while (!parsing.isEmpty()) {
+                add(model, getParsed(parsing.poll()), nextRow, formulaCells);
+            }
+        } finally {
+            if (parsers != null) {
+                parsers.shutdownNow();
+            }
+        }
+
+        model.rebuild();
+        if (calculate && !formulaCells.isEmpty()) {
+            model.recalculate(formulaCells);
+        }
+        return model;
+    }
+
+    // Writes the displayed values of a model, from the first row and column up to the last used ones
+    public static void write(SheetModel model, Path path, Format format) throws IOException {
+        long[] addresses = new long[model.getCellCount()];
+        int[] count = { 0 };
+        int[] width = { 0 };
+        model.forEachCell(cell -> {
+            if (!cell.getDisplayText().isEmpty()) {
+                addresses[count[0]++] = cell.getAddress();
+                width[0] = Math.max(width[0], CellAddress.getX(cell.getAddress()));
+            }
+        });
+        Arrays.sort(addresses, 0, count[0]);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+            Future<?> previousWrite = CompletableFuture.completedFuture(null);
+            StringBuilder chunk = new StringBuilder(CHUNK_SIZE);
+            int row = 1;
+            int column = 0;
+
+            for (int i = 0; i < count[0]; i++) {
+                int x = CellAddress.getX(addresses[i]);
+                int y = CellAddress.getY(addresses[i]);
+                for (; row < y; row++) {
+                    endRow(chunk, format, column, width[0]);
+                    column = 0;
+                }
+
+                appendDelimiters(chunk, format, column, x);
+                appendField(chunk, model.getDisplayText(new CellCode(x, y)), format);
+                column = x;
+
+                if (chunk.length() >= CHUNK_SIZE) {
+                    previousWrite = writeChunk(channel, encoder, chunk, previousWrite);
+                    chunk = new StringBuilder(CHUNK_SIZE);
+                }
+            }
+            if (count[0] > 0) {
+                endRow(chunk, format, column, width[0]);
+            }
+
+            getWritten(writeChunk(channel, encoder, chunk, previousWrite));
+        }
+    }
+
+    // Decodes more of the file until the buffer is full, returning true once the whole file has been decoded
+    private static boolean fill(FileChannel channel, CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars) throws IOException {
+        while (chars.hasRemaining()) {
+            boolean endOfInput = channel.read(bytes) < 0;
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            bytes.compact();
+            if (result.isOverflow()) {
+                return false;
+            }
+            if (endOfInput) {
+                return !decoder.flush(chars).isOverflow();
+            }
+        }
+        return false;
+    }
+
+    // Returns the length of the whole records at the start of the buffer, tracking quotes so quoted newlines are kept
+    private static int findLastRecordEnd(CharBuffer chars, Format format) {
+        boolean inQuotes = false;
+        int end = 0;
+        for (int i = chars.position(); i < chars.limit(); i++) {
+            char c = chars.get(i);
+            if (c == '"' && format.quoted) {
+                inQuotes = !inQuotes;
+            } else if (c == '\n' && !inQuotes) {
+                end = i + 1;
+            }
+        }
+        return end;
+    }
+
+    private static ParsedChunk parse(char[] chunk, Format format) {
+        ParsedChunk parsed = new ParsedChunk();
+        StringBuilder field = new StringBuilder();
+        int column = 1;
+        int i = 0;
+
+        while (i < chunk.length) {
+            field.setLength(0);
+            if (format.quoted && chunk[i] == '"') {
+                for (i++; i < chunk.length; i++) {
+                    if (chunk[i] == '"') {
+                        if (i + 1 < chunk.length && chunk[i + 1] == '"') {
+                            i++;
+                        } else {
+                            i++;
+                            break;
+                        }
+                    }
+                    field.append(chunk[i]);
+                }
+            }
+            for (; i < chunk.length && chunk[i] != format.delimiter && chunk[i] != '\n'; i++) {
+                field.append(chunk[i]);
+            }
+
+            boolean endOfRecord = i >= chunk.length || chunk[i] == '\n';
+            if (endOfRecord && field.length() > 0 && field.charAt(field.length() - 1) == '\r') {
+                field.setLength(field.length() - 1);
+            }
+            if (field.length() > 0) {
+                parsed.addresses.add(CellAddress.pack(column, parsed.records));
+                String content = field.toString();
+                parsed.contents.add(content);
+                parsed.values.add(parseValue(content));
+            }
+
+            i++;
+            if (endOfRecord) {
+                parsed.records++;
+                column = 1;
+            } else {
+                column++;
+                if (i == chunk.length) {
+                    // A delimiter at the very end still ends the record
+                    parsed.records++;
+                }
+            }
+        }
+
+        return parsed;
+    }
+
+    // Parses plain integers directly, which are exact as doubles up to 15 digits, and everything else as cell content.
+    // Formulas are calculated once the whole file is imported.
+    private static CellValue parseValue(String content) {
+        if (content.startsWith("=")) {
+            return CellValue.EMPTY;
+        }
+
+        int start = content.charAt(0) == '-' ? 1 : 0;
+        int length = content.length() - start;
+        if (length == 0 || length > MAX_EXACT_DIGITS) {
+            return CellValue.fromContent(content);
+        }
+
+        long number = 0;
+        for (int i = start; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c < '0' || c > '9') {
+                return CellValue.fromContent(content);
+            }
+            number = number * 10 + (c - '0');
+        }
+        return CellValue.number(start == 1 ? -number : number);
+    }
+
+    private static void add(SheetModel model, ParsedChunk parsed, int[] nextRow, List<CellCode> formulaCells) throws IOException {
+        for (int i = 0; i < parsed.contents.size(); i++) {
+            long address = parsed.addresses.get(i);
+            CellCode cellCode = new CellCode(CellAddress.getX(address), nextRow[0] + CellAddress.getY(address));
+            if (!model.contains(cellCode)) {
+                throw new IOException("Cell " + cellCode + " is outside of the sheet");
+            }
+
+            String content = parsed.contents.get(i);
+            model.restoreCell(cellCode.toAddress(), content, CellData.STYLE_PLAIN, NumberFormatter.GENERAL, parsed.values.get(i));
+            if (content.startsWith("=")) {
+                formulaCells.add(cellCode);
+            }
+        }
+        nextRow[0] += parsed.records;
+    }
+
+    private static ParsedChunk getParsed(Future<ParsedChunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    // Appends the delimiters that come before a column, after the last column written in the row or 0 if none was
+    private static void appendDelimiters(StringBuilder chunk, Format format, int lastColumn, int column) {
+        for (int i = Math.max(lastColumn, 1); i < column; i++) {
+            chunk.append(format.delimiter);
+        }
+    }
+
+    private static void endRow(StringBuilder chunk, Format format, int lastColumn, int width) {
+        appendDelimiters(chunk, format, lastColumn, width);
+        chunk.append('\n');
+    }
+
+    private static void appendField(StringBuilder chunk, String text, Format format) {
+        if (!format.quoted) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                chunk.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+            }
+            return;
+        }
+
+        boolean needsQuotes = false;
+        for (int i = 0; i < text.length() && !needsQuotes; i++) {
+            char c = text.charAt(i);
+            needsQuotes = c == format.delimiter || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            chunk.append(text);
+            return;
+        }
+
+        chunk.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                chunk.append('"');
+            }
+            chunk.append(c);
+        }
+        chunk.append('"');
+    }
+
+    // Writes a chunk after the previous one on the writer thread, so the next chunk can be formatted meanwhile
+    private static Future<?> writeChunk(FileChannel channel, CharsetEncoder encoder, StringBuilder chunk, Future<?> previousWrite) throws IOException {
+        getWritten(previousWrite);
+        return writer.submit(() -> {
+            ByteBuffer bytes = encoder.encode(CharBuffer.wrap(chunk));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            return null;
+        });
+    }
+
+    private static void getWritten(Future<?> write) throws IOException {
+        try {
+            write.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw ex.getCause() instanceof IOException io ? io : new IOException(ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package subsheet;
+
+import java.util.*;
+import java.util.function.LongConsumer;
+
+// Precedents and dependents of formula cells, keyed by packed cell addresses. Ranges are kept as rectangles rather
+// than as the cells they cover, so a formula over a whole column costs no more to track than one over a few cells.
+public class DependencyGraph {
+    // Rows covered by a range are stored as the nodes of a segment tree over every possible row, so finding the
+    // ranges that contain a cell takes one lookup per level of the tree
+    private static final int TREE_ROWS = 1 << 30;
+    private static final long[] NO_CELLS = new long[0];
+
+    private final LongHashMap<long[]> precedents = new LongHashMap<>();
+    private final LongHashMap<long[]> rangePrecedents = new LongHashMap<>();
+    private final LongHashMap<LongHashSet> dependents = new LongHashMap<>();
+    // Keyed by column in the upper 32 bits and tree node in the lower 32 bits
+    private final LongHashMap<LongHashSet> rangeDependents = new LongHashMap<>();
+    private final LongHashMap<int[]> rangeColumns = new LongHashMap<>();
+
+    // Sets the cells and ranges a cell references, where ranges are given as pairs of start and end addresses
+    public void setReferences(long cell, long[] references, long[] rangeReferences) {
+        long[] oldReferences = precedents.remove(cell);
+        if (oldReferences != null) {
+            for (long reference : oldReferences) {
+                LongHashSet referenceDependents = dependents.get(reference);
+                referenceDependents.remove(cell);
+                if (referenceDependents.isEmpty()) {
+                    dependents.remove(reference);
+                }
+            }
+        }
+
+        long[] oldRangeReferences = rangePrecedents.remove(cell);
+        if (oldRangeReferences != null) {
+            for (int i = 0; i < oldRangeReferences.length; i += 2) {
+                updateRange(cell, oldRangeReferences[i], oldRangeReferences[i + 1], false);
+            }
+        }
+
+        if (references.length > 0) {
+            precedents.put(cell, references);
+            for (long reference : references) {
+                LongHashSet referenceDependents = dependents.get(reference);
+                if (referenceDependents == null) {
+                    referenceDependents = new LongHashSet();
+                    dependents.put(reference, referenceDependents);
+                }
+                referenceDependents.add(cell);
+            }
+        }
+
+        if (rangeReferences.length > 0) {
+            rangePrecedents.put(cell, rangeReferences);
+            for (int i = 0; i < rangeReferences.length; i += 2) {
+                updateRange(cell, rangeReferences[i], rangeReferences[i + 1], true);
+            }
+        }
+    }
+
+    // Returns the distinct cells referenced by a cell, not including the cells of ranges, which must not be modified
+    public long[] getPrecedents(long cell) {
+        long[] cellPrecedents = precedents.get(cell);
+        return cellPrecedents != null ? cellPrecedents : NO_CELLS;
+    }
+
+    // Returns the ranges referenced by a cell as pairs of start and end addresses, which must not be modified
+    public long[] getRangePrecedents(long cell) {
+        long[] cellRangePrecedents = rangePrecedents.get(cell);
+        return cellRangePrecedents != null ? cellRangePrecedents : NO_CELLS;
+    }
+
+    // Passes every cell that references a cell, directly or through a range, to the consumer. A cell referencing it
+    // through several ranges may be passed more than once.
+    public void forEachDependent(long cell, LongConsumer consumer) {
+        LongHashSet cellDependents = dependents.get(cell);
+        if (cellDependents != null) {
+            cellDependents.forEach(consumer);
+        }
+
+        int x = CellAddress.getX(cell);
+        int y = CellAddress.getY(cell);
+        if (!rangeColumns.containsKey(x) || y < 0 || y >= TREE_ROWS) {
+            return;
+        }
+
+        for (int node = TREE_ROWS + y; node >= 1; node >>= 1) {
+            LongHashSet nodeDependents = rangeDependents.get(getRangeKey(x, node));
+            if (nodeDependents != null) {
+                nodeDependents.forEach(consumer);
+            }
+        }
+    }
+
+    // Returns the changed cells and all of their transitive dependents grouped into levels, where every cell only
+    // depends on cells in earlier levels. Cells in a circular reference through other cells are added to circularCells
+    // instead, and cells only referencing themselves to selfReferencingCells. The cells depending on either are
+    // ordered as if they had no value to wait for.
+    public List<long[]> getRecalculationLevels(long[] changedCells, LongList circularCells, LongList selfReferencingCells) {
+        LongHashMap<int[]> indices = new LongHashMap<>();
+        LongList affected = new LongList(changedCells.length);
+        for (long cell : changedCells) {
+            addAffectedCell(cell, indices, affected);
+        }
+
+        // The edges to the dependents of each affected cell are stored from edgeStarts[cell] to edgeStarts[cell + 1],
+        // so the graph is only walked through the cells that were actually reached
+        int[] edgeStarts = new int[affected.size() + 1];
+        int[] targets = new int[16];
+        int edgeCount = 0;
+        LongList cellDependents = new LongList();
+        for (int i = 0; i < affected.size(); i++) {
+            cellDependents.clear();
+            forEachDependent(affected.get(i), cellDependents::add);
+
+            if (i + 1 >= edgeStarts.length) {
+                edgeStarts = Arrays.copyOf(edgeStarts, edgeStarts.length * 2);
+            }
+            if (edgeCount + cellDependents.size() > targets.length) {
+                targets = Arrays.copyOf(targets, Math.max(targets.length * 2, edgeCount + cellDependents.size()));
+            }
+
+            edgeStarts[i] = edgeCount;
+            for (int j = 0; j < cellDependents.size(); j++) {
+                targets[edgeCount++] = addAffectedCell(cellDependents.get(j), indices, affected);
+            }
+        }
+
+        int cellCount = affected.size();
+        edgeStarts = Arrays.copyOf(edgeStarts, cellCount + 1);
+        edgeStarts[cellCount] = edgeCount;
+
+        // Tarjan's algorithm following dependents, which finds every strongly connected component after the
+        // components depending on it. The recursion is kept on explicit stacks so long chains can't overflow.
+        int[] order = new int[cellCount];
+        int[] lowLinks = new int[cellCount];
+        boolean[] onStack = new boolean[cellCount];
+        boolean[] circular = new boolean[cellCount];
+        int[] componentStack = new int[cellCount];
+        int[] callStack = new int[cellCount];
+        int[] edgeStack = new int[cellCount];
+        int[] finished = new int[cellCount];
+        int finishedCount = 0;
+        int visited = 0;
+        int componentSize = 0;
+
+        for (int root = 0; root < cellCount; root++) {
+            if (order[root] != 0) {
+                continue;
+            }
+
+            int depth = 0;
+            callStack[0] = root;
+            edgeStack[0] = edgeStarts[root];
+            order[root] = lowLinks[root] = ++visited;
+            componentStack[componentSize++] = root;
+            onStack[root] = true;
+
+            while (depth >= 0) {
+                int cell = callStack[depth];
+
+                if (edgeStack[depth] < edgeStarts[cell + 1]) {
+                    int dependent = targets[edgeStack[depth]++];
+                    if (order[dependent] == 0) {
+                        depth++;
+                        callStack[depth] = dependent;
+                        edgeStack[depth] = edgeStarts[dependent];
+                        order[dependent] = lowLinks[dependent] = ++visited;
+                        componentStack[componentSize++] = dependent;
+                        onStack[dependent] = true;
+                    } else if (onStack[dependent]) {
+                        lowLinks[cell] = Math.min(lowLinks[cell], order[dependent]);
+                    }
+                    continue;
+                }
+
+                depth--;
+                if (depth >= 0) {
+                    lowLinks[callStack[depth]] = Math.min(lowLinks[callStack[depth]], lowLinks[cell]);
+                }
+                if (lowLinks[cell] != order[cell]) {
+                    continue;
+                }
+
+                // The cell is the root of a component, which is on top of the stack
+                int componentStart = componentSize;
+                do {
+                    onStack[componentStack[--componentStart]] = false;
+                } while (componentStack[componentStart] != cell);
+
+                boolean selfReferencing = componentSize - componentStart == 1 && hasEdge(cell, cell, edgeStarts, targets);
+                boolean isCircular = componentSize - componentStart > 1 || selfReferencing;
+                for (int i = componentStart; i < componentSize; i++) {
+                    circular[componentStack[i]] = isCircular;
+                    finished[finishedCount++] = componentStack[i];
+                    if (isCircular) {
+                        (selfReferencing ? selfReferencingCells : circularCells).add(affected.get(componentStack[i]));
+                    }
+                }
+                componentSize = componentStart;
+            }
+        }
+
+        // Components are finished after their dependents, so in reverse every cell comes after its precedents.
+        // Precedents outside the affected cells keep their values, and circular ones are already known.
+        int[] levels = new int[cellCount];
+        int maxLevel = -1;
+        for (int i = finishedCount - 1; i >= 0; i--) {
+            int cell = finished[i];
+            if (circular[cell]) {
+                continue;
+            }
+
+            maxLevel = Math.max(maxLevel, levels[cell]);
+            for (int edge = edgeStarts[cell]; edge < edgeStarts[cell + 1]; edge++) {
+                levels[targets[edge]] = Math.max(levels[targets[edge]], levels[cell] + 1);
+            }
+        }
+
+        LongList[] levelCells = new LongList[maxLevel + 1];
+        for (int i = 0; i < levelCells.length; i++) {
+            levelCells[i] = new LongList();
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            if (!circular[cell]) {
+                levelCells[levels[cell]].add(affected.get(cell));
+            }
+        }
+
+        List<long[]> recalculationLevels = new ArrayList<>(levelCells.length);
+        for (LongList cells : levelCells) {
+            recalculationLevels.add(cells.toArray());
+        }
+        return recalculationLevels;
+    }
+
+    private static int addAffectedCell(long cell, LongHashMap<int[]> indices, LongList affected) {
+        int[] index = indices.get(cell);
+        if (index == null) {
+            index = new int[] { affected.size() };
+            indices.put(cell, index);
+            affected.add(cell);
+        }
+        return index[0];
+    }
+
+    private static boolean hasEdge(int cell, int dependent, int[] edgeStarts, int[] targets) {
+        for (int edge = edgeStarts[cell]; edge < edgeStarts[cell + 1]; edge++) {
+            if (targets[edge] == dependent) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Adds or removes a cell as a dependent of the tree nodes that together cover the rows of a range, in every
+    // column of the range
+    private void updateRange(long cell, long start, long end, boolean add) {
+        int startY = Math.max(CellAddress.getY(start), 0);
+        int endY = Math.min(CellAddress.getY(end), TREE_ROWS - 1);
+        if (startY > endY) {
+            return;
+        }
+
+        for (int x = CellAddress.getX(start); x <= CellAddress.getX(end); x++) {
+            int[] rangeCount = rangeColumns.get(x);
+            if (add && rangeCount == null) {
+                rangeCount = new int[1];
+                rangeColumns.put(x, rangeCount);
+            }
+
+            // The end is one past the last row, which is 2^31 for the last row of the tree, so it's kept in a long
+            for (long first = TREE_ROWS + startY, last = TREE_ROWS + endY + 1L; first < last; first >>= 1, last >>= 1) {
+                if ((first & 1) == 1) {
+                    updateRangeNode(cell, getRangeKey(x, first++), add);
+                }
+                if ((last & 1) == 1) {
+                    updateRangeNode(cell, getRangeKey(x, --last), add);
+                }
+            }
+
+            rangeCount[0] += add ? 1 : -1;
+            if (rangeCount[0] == 0) {
+                rangeColumns.remove(x);
+            }
+        }
+    }
+
+    private void updateRangeNode(long cell, long key, boolean add) {
+        LongHashSet nodeDependents = rangeDependents.get(key);
+        if (add) {
+            if (nodeDependents == null) {
+                nodeDependents = new LongHashSet(4);
+                rangeDependents.put(key, nodeDependents);
+            }
+            nodeDependents.add(cell);
+        } else if (nodeDependents != null) {
+            nodeDependents.remove(cell);
+            if (nodeDependents.isEmpty()) {
+                rangeDependents.remove(key);
+            }
+        }
+    }
+
+    private static long getRangeKey(int x, long node) {
+        return ((long) x << 32) | node;
+    }
+}
@@ -0,0 +1,133 @@
+package subsheet;
+
+import java.util.function.LongConsumer;
+
+// Open addressing hash set of primitive longs, avoiding boxing and entry objects for every element.
+public class LongHashSet {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private long[] elements;
+    private boolean[] used;
+    private int size;
+
+    public LongHashSet() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        elements = new long[capacity];
+        used = new boolean[capacity];
+    }
+
+    public boolean contains(long element) {
+        int mask = elements.length - 1;
+        for (int i = hash(element) & mask; used[i]; i = (i + 1) & mask) {
+            if (elements[i] == element) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public boolean add(long element) {
+        int mask = elements.length - 1;
+        int i = hash(element) & mask;
+        for (; used[i]; i = (i + 1) & mask) {
+            if (elements[i] == element) {
+                return false;
+            }
+        }
+
+        elements[i] = element;
+        used[i] = true;
+        if (++size * 2 > elements.length) {
+            resize(elements.length * 2);
+        }
+
+        return true;
+    }
+
+    public boolean remove(long element) {
+        int mask = elements.length - 1;
+        int i = hash(element) & mask;
+        while (used[i] && elements[i] != element) {
+            i = (i + 1) & mask;
+        }
+
+        if (!used[i]) {
+            return false;
+        }
+
+        used[i] = false;
+        size--;
+
+        // Shift back following elements of the probe sequence so lookups never stop at the freed slot
+        for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+            int home = hash(elements[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                elements[i] = elements[j];
+                used[i] = true;
+                used[j] = false;
+                i = j;
+            }
+        }
+
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(LongConsumer consumer) {
+        for (int i = 0; i < elements.length; i++) {
+            if (used[i]) {
+                consumer.accept(elements[i]);
+            }
+        }
+    }
+
+    public long[] toArray() {
+        long[] array = new long[size];
+        int j = 0;
+        for (int i = 0; i < elements.length; i++) {
+            if (used[i]) {
+                array[j++] = elements[i];
+            }
+        }
+        return array;
+    }
+
+    private void resize(int capacity) {
+        long[] oldElements = elements;
+        boolean[] oldUsed = used;
+        elements = new long[capacity];
+        used = new boolean[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldElements.length; i++) {
+            if (oldUsed[i]) {
+                int j = hash(oldElements[i]) & mask;
+                while (used[j]) {
+                    j = (j + 1) & mask;
+                }
+                elements[j] = oldElements[i];
+                used[j] = true;
+            }
+        }
+    }
+
+    private static int hash(long element) {
+        long h = element * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
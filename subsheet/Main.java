@@ -1,16 +1,21 @@
 package subsheet;
 
 import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Path;
 import javax.swing.*;
 
 public class Main {
+    public static final int ROWS = 1_000_000;
+    public static final int COLUMNS = 26;
     private static JFrame frame;
     private static Spreadsheet currentSpreadsheet;
     public static String savePath;
+    private static WorkbookJournal journal;
 
     public static void main(String[] args) {
         frame = new JFrame("Subsheet");
-        currentSpreadsheet = new Spreadsheet(40, 26);
+        currentSpreadsheet = new Spreadsheet(ROWS, COLUMNS);
         currentSpreadsheet.addToFrame(frame);
         frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         frame.setJMenuBar(new AppMenuBar());
@@ -21,23 +26,44 @@ public class Main {
     }
 
     public static void loadSpreadsheet(Spreadsheet spreadsheet) {
+        journal = null;
         currentSpreadsheet.removeFromFrame(frame);
-        currentSpreadsheet = spreadsheet != null ? spreadsheet : new Spreadsheet(40, 26);
+        currentSpreadsheet = spreadsheet != null ? spreadsheet : new Spreadsheet(ROWS, COLUMNS);
         currentSpreadsheet.addToFrame(frame);
         SwingUtilities.updateComponentTreeUI(frame);
     }
 
-    public static ProjectData getProjectObject() {
-        ProjectData data = new ProjectData();
+    // Saving again to the file the spreadsheet was last saved to or opened from only appends the edits to its journal
+    public static void saveSpreadsheet(String filePath) throws IOException {
         currentSpreadsheet.preSave();
-        data.spreadsheet = currentSpreadsheet;
-        return data;
+        if (journal != null && filePath.equals(savePath)) {
+            journal.append(currentSpreadsheet.getModel());
+        } else {
+            journal = new WorkbookJournal(Path.of(filePath));
+            journal.saveSnapshot(currentSpreadsheet.getModel(), true);
+        }
+        savePath = filePath;
     }
 
-    public static void loadProjectObject(ProjectData projectData, String filePath) {
-        projectData.onDeserialize();
+    public static void openSpreadsheet(String filePath) throws IOException {
+        SheetModel model = WorkbookJournal.open(Path.of(filePath));
         savePath = filePath;
-        loadSpreadsheet(projectData.spreadsheet);
+        loadSpreadsheet(new Spreadsheet(model));
+        journal = new WorkbookJournal(Path.of(filePath));
+    }
+
+    // Imports a CSV or TSV file into a new spreadsheet, which is saved to a new file
+    public static void importSpreadsheet(String filePath) throws IOException {
+        Path path = Path.of(filePath);
+        SheetModel model = DelimitedFile.read(path, DelimitedFile.Format.fromPath(path), ROWS, COLUMNS, Runtime.getRuntime().availableProcessors());
+        loadSpreadsheet(new Spreadsheet(model));
+        savePath = null;
+    }
+
+    public static void exportSpreadsheet(String filePath) throws IOException {
+        Path path = Path.of(filePath);
+        currentSpreadsheet.preSave();
+        DelimitedFile.write(currentSpreadsheet.getModel(), path, DelimitedFile.Format.fromPath(path));
     }
 
     public static Spreadsheet getCurrentSpreadsheet() {
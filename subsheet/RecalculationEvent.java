@@ -0,0 +1,21 @@
+package subsheet;
+
+import jdk.jfr.*;
+
+@Name("subsheet.Recalculation")
+@Label("Recalculation")
+@Category("Subsheet")
+@Description("A recalculation pass over the cells affected by an edit")
+public class RecalculationEvent extends Event {
+    @Label("Formula Cells")
+    public int formulaCells;
+
+    @Label("Levels")
+    public int levels;
+
+    @Label("Parallel Levels")
+    public int parallelLevels;
+
+    @Label("Cancelled")
+    public boolean cancelled;
+}
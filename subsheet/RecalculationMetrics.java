@@ -0,0 +1,121 @@
+package subsheet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+import sil.SILFormula;
+
+// Timings of the recalculations of a sheet model, collected only while enabled. Every cell is evaluated once per pass
+// after its precedents, so cell timings only cover the cell's own formula. The same measurements are also emitted as
+// Flight Recorder events when recording.
+public class RecalculationMetrics {
+    public record CellTiming(CellCode cell, String content, long evaluations, long totalNanos) {
+    }
+
+    private final SheetModel model;
+    private volatile boolean enabled;
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder passNanos = new LongAdder();
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder evaluationNanos = new LongAdder();
+    private volatile int lastPassCells;
+    private volatile long lastPassNanos;
+    private long tokenizeBaseline;
+    private long parseBaseline;
+
+    RecalculationMetrics(SheetModel model) {
+        this.model = model;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // Clears every measurement, including the timings of cells. Must be called on the thread that edits the model.
+    public void reset() {
+        passes.reset();
+        passNanos.reset();
+        evaluations.reset();
+        evaluationNanos.reset();
+        lastPassCells = 0;
+        lastPassNanos = 0;
+        tokenizeBaseline = SILFormula.getTokenizeNanos();
+        parseBaseline = SILFormula.getParseNanos();
+        model.forEachCell(CellData::resetEvaluationTime);
+    }
+
+    void recordPass(int formulaCells, long nanos) {
+        passes.increment();
+        passNanos.add(nanos);
+        lastPassCells = formulaCells;
+        lastPassNanos = nanos;
+    }
+
+    void recordEvaluation(long nanos) {
+        evaluations.increment();
+        evaluationNanos.add(nanos);
+    }
+
+    public long getPasses() {
+        return passes.sum();
+    }
+
+    public long getPassNanos() {
+        return passNanos.sum();
+    }
+
+    public int getLastPassCells() {
+        return lastPassCells;
+    }
+
+    public long getLastPassNanos() {
+        return lastPassNanos;
+    }
+
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    // The phases of calculating formulas. Tokenizing and parsing only happen for formulas missing from the formula
+    // cache, which is shared by every model, so they are counted whether or not metrics are enabled.
+    public long getTokenizeNanos() {
+        return SILFormula.getTokenizeNanos() - tokenizeBaseline;
+    }
+
+    public long getParseNanos() {
+        return SILFormula.getParseNanos() - parseBaseline;
+    }
+
+    public long getEvaluationNanos() {
+        return evaluationNanos.sum();
+    }
+
+    // Returns the cells that took the longest to evaluate in total, slowest first. Must be called on the thread that
+    // edits the model.
+    public List<CellTiming> getSlowestCells(int limit) {
+        Comparator<CellData> byTime = Comparator.comparingLong(CellData::getEvaluationNanos);
+        PriorityQueue<CellData> slowest = new PriorityQueue<>(byTime);
+        model.forEachCell(cell -> {
+            if (cell.getEvaluationCount() == 0) {
+                return;
+            }
+            slowest.add(cell);
+            if (slowest.size() > limit) {
+                slowest.poll();
+            }
+        });
+
+        List<CellTiming> timings = new ArrayList<>(slowest.size());
+        while (!slowest.isEmpty()) {
+            CellData cell = slowest.poll();
+            timings.add(0, new CellTiming(cell.getCode(), cell.getContent(), cell.getEvaluationCount(), cell.getEvaluationNanos()));
+        }
+        return timings;
+    }
+}
@@ -0,0 +1,523 @@
+package subsheet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import sil.*;
+
+// The data of a spreadsheet, independent of any user interface. Only cells with content or formatting are stored.
+// Edits must all be made from one thread, which can read the model without locking. Recalculations may run on
+// other threads, and hold the read lock while they evaluate cells.
+public class SheetModel {
+    private static final int CELLS_PER_TASK = 64;
+
+    private final int rows;
+    private final int columns;
+    private final LongHashMap<CellData> cells = new LongHashMap<>();
+    private final DependencyGraph dependencyGraph = new DependencyGraph();
+    private final ColumnAggregateIndex aggregateIndex;
+    private final RecalculationMetrics metrics = new RecalculationMetrics(this);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private ForkJoinPool recalculationPool;
+    private LongHashSet editedCells = new LongHashSet();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int parallelThreshold = 1024;
+
+    public SheetModel(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        aggregateIndex = new ColumnAggregateIndex(rows, columns);
+    }
+
+    // Adds a cell read from a file along with its calculated value. Once every cell is restored, rebuild() must be
+    // called before the model is used.
+    void restoreCell(long address, String content, int style, NumberFormatter numberFormat, CellValue value) {
+        CellData cell = new CellData(address);
+        cell.setContent(content);
+        cell.setStyle(style);
+        cell.setNumberFormat(numberFormat);
+        cell.setValue(value);
+        cells.put(address, cell);
+    }
+
+    // Rebuilds the parsed formulas, dependencies and aggregates of restored cells
+    void rebuild() {
+        cells.forEach((address, cell) -> {
+            updateFormula(cell);
+            aggregateIndex.set(CellAddress.getX(address), CellAddress.getY(address), cell.getValue());
+        });
+    }
+
+    public void forEachCell(Consumer<CellData> consumer) {
+        cells.forEach((address, cell) -> consumer.accept(cell));
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public boolean contains(CellCode cellCode) {
+        return contains(cellCode.x(), cellCode.y());
+    }
+
+    public boolean contains(int x, int y) {
+        return x >= 1 && x <= columns && y >= 1 && y <= rows;
+    }
+
+    public CellData getCell(CellCode cellCode) {
+        return cells.get(cellCode.toAddress());
+    }
+
+    public int getCellCount() {
+        return cells.size();
+    }
+
+    public String getContent(CellCode cellCode) {
+        CellData cell = getCell(cellCode);
+        return cell != null ? cell.getContent() : "";
+    }
+
+    public CellValue getValue(CellCode cellCode) {
+        CellData cell = getCell(cellCode);
+        return cell != null ? cell.getValue() : CellValue.EMPTY;
+    }
+
+    public String getDisplayText(CellCode cellCode) {
+        CellData cell = getCell(cellCode);
+        return cell != null ? cell.getDisplayText() : "";
+    }
+
+    public boolean hasFormula(CellCode cellCode) {
+        CellData cell = getCell(cellCode);
+        return cell != null && cell.hasFormula();
+    }
+
+    public int getStyle(CellCode cellCode) {
+        CellData cell = getCell(cellCode);
+        return cell != null ? cell.getStyle() : CellData.STYLE_PLAIN;
+    }
+
+    public NumberFormatter getNumberFormat(CellCode cellCode) {
+        CellData cell = getCell(cellCode);
+        return cell != null ? cell.getNumberFormat() : NumberFormatter.GENERAL;
+    }
+
+    public void setNumberFormat(CellCode cellCode, NumberFormatter numberFormat) {
+        lock.writeLock().lock();
+        try {
+            CellData cell = getOrCreateCell(cellCode);
+            cell.setNumberFormat(numberFormat);
+            editedCells.add(cell.getAddress());
+            removeIfBlank(cell);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isPending(CellCode cellCode) {
+        CellData cell = getCell(cellCode);
+        return cell != null && cell.isPending();
+    }
+
+    public void toggleStyle(CellCode cellCode, int style) {
+        setStyle(cellCode, style == CellData.STYLE_PLAIN ? CellData.STYLE_PLAIN : getStyle(cellCode) ^ style);
+    }
+
+    public void setStyle(CellCode cellCode, int style) {
+        lock.writeLock().lock();
+        try {
+            CellData cell = getOrCreateCell(cellCode);
+            cell.setStyle(style);
+            editedCells.add(cell.getAddress());
+            removeIfBlank(cell);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Returns the addresses of cells whose content or style changed since the edits were last taken
+    public long[] getEditedCells() {
+        return editedCells.toArray();
+    }
+
+    // Returns the addresses of cells whose content or style changed since the last call, so a save can write only them
+    public long[] takeEditedCells() {
+        long[] addresses = editedCells.toArray();
+        editedCells = new LongHashSet();
+        return addresses;
+    }
+
+    public DependencyGraph getDependencyGraph() {
+        return dependencyGraph;
+    }
+
+    public ColumnAggregateIndex getAggregateIndex() {
+        return aggregateIndex;
+    }
+
+    public RecalculationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    // Sets the number of threads used to recalculate independent cells, where 1 always recalculates sequentially
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+
+        this.parallelism = parallelism;
+        if (recalculationPool != null) {
+            recalculationPool.shutdown();
+            recalculationPool = null;
+        }
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    // Sets the number of independent formula cells a level needs for it to be recalculated in parallel
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    // Sets the content of a cell and recalculates its dependents, returning every cell whose value was updated
+    public List<CellCode> setContent(CellCode cellCode, String content) {
+        updateContent(cellCode, content);
+        return recalculate(Collections.singletonList(cellCode));
+    }
+
+    // Recalculates every formula cell, returning every cell whose value was updated
+    public List<CellCode> recalculateAll() {
+        List<CellCode> formulaCells = new ArrayList<>();
+        cells.forEach((address, cell) -> {
+            if (cell.hasFormula()) {
+                formulaCells.add(cell.getCode());
+            }
+        });
+
+        return recalculate(formulaCells);
+    }
+
+    // Recalculates the given cells and their dependents on this thread, returning every cell whose value was updated
+    public List<CellCode> recalculate(Collection<CellCode> changedCells) {
+        Recalculation recalculation = startRecalculation(changedCells);
+        recalculation.run(() -> false);
+        recalculation.clearPending();
+        return recalculation.getUpdatedCells();
+    }
+
+    // Sets the content of a cell without recalculating it or its dependents
+    public void updateContent(CellCode cellCode, String content) {
+        lock.writeLock().lock();
+        try {
+            CellData cell = getOrCreateCell(cellCode);
+            cell.setContent(content);
+            editedCells.add(cell.getAddress());
+            updateFormula(cell);
+            if (!cell.hasFormula()) {
+                // A pass that marked the cell may have been cancelled, and later passes only clear formula cells
+                setValue(cell, CellValue.fromContent(content));
+                cell.setPending(false);
+            }
+            removeIfBlank(cell);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Finds the cells to recalculate after the given cells changed, and marks them as pending
+    public Recalculation startRecalculation(Collection<CellCode> changedCells) {
+        lock.readLock().lock();
+        try {
+            long[] changedAddresses = new long[changedCells.size()];
+            int i = 0;
+            for (CellCode cellCode : changedCells) {
+                changedAddresses[i++] = cellCode.toAddress();
+            }
+
+            LongList circularCells = new LongList();
+            LongList selfReferencingCells = new LongList();
+            List<long[]> levels = dependencyGraph.getRecalculationLevels(changedAddresses, circularCells, selfReferencingCells);
+            List<List<CellData>> formulaLevels = new ArrayList<>(levels.size());
+            List<CellCode> updatedCells = new ArrayList<>();
+
+            // Cells in a circular reference aren't evaluated, so cells depending on them read the error
+            setReferenceErrors(circularCells, InterpreterError.CIRC_REF, updatedCells);
+            setReferenceErrors(selfReferencingCells, InterpreterError.SELF_REF, updatedCells);
+
+            for (long[] level : levels) {
+                List<CellData> formulaCells = new ArrayList<>(level.length);
+                for (long address : level) {
+                    CellData cell = cells.get(address);
+                    if (cell != null && cell.hasFormula()) {
+                        cell.setPending(true);
+                        formulaCells.add(cell);
+                    }
+                    updatedCells.add(CellCode.fromAddress(address));
+                }
+                formulaLevels.add(formulaCells);
+            }
+
+            return new Recalculation(formulaLevels, updatedCells);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void setReferenceErrors(LongList addresses, InterpreterError error, List<CellCode> updatedCells) {
+        for (int i = 0; i < addresses.size(); i++) {
+            CellData cell = cells.get(addresses.get(i));
+            if (cell != null && cell.hasFormula()) {
+                setValue(cell, CellValue.error(error));
+            }
+            updatedCells.add(CellCode.fromAddress(addresses.get(i)));
+        }
+    }
+
+    // A recalculation of the cells affected by an edit. Formula cells stay pending until the results are published.
+    public class Recalculation {
+        private final List<List<CellData>> formulaLevels;
+        private final List<CellCode> updatedCells;
+
+        private Recalculation(List<List<CellData>> formulaLevels, List<CellCode> updatedCells) {
+            this.formulaLevels = formulaLevels;
+            this.updatedCells = updatedCells;
+        }
+
+        public List<CellCode> getUpdatedCells() {
+            return updatedCells;
+        }
+
+        // Evaluates the pending cells, returning false if the recalculation was cancelled before it finished
+        public boolean run(BooleanSupplier cancelled) {
+            RecalculationEvent event = new RecalculationEvent();
+            event.begin();
+            long start = System.nanoTime();
+            int formulaCellCount = 0;
+            boolean finished = false;
+
+            lock.readLock().lock();
+            try {
+                // Cells in a level only depend on earlier levels, so each level can be evaluated concurrently
+                for (List<CellData> formulaCells : formulaLevels) {
+                    if (cancelled.getAsBoolean()) {
+                        return false;
+                    }
+
+                    if (parallelism > 1 && formulaCells.size() >= parallelThreshold) {
+                        getRecalculationPool().invoke(new RecalculationTask(formulaCells, 0, formulaCells.size(), cancelled));
+                        event.parallelLevels++;
+                    } else {
+                        calculateFormulas(formulaCells, 0, formulaCells.size(), cancelled);
+                    }
+                    formulaCellCount += formulaCells.size();
+                }
+
+                finished = !cancelled.getAsBoolean();
+                return finished;
+            } finally {
+                lock.readLock().unlock();
+
+                if (metrics.isEnabled()) {
+                    metrics.recordPass(formulaCellCount, System.nanoTime() - start);
+                }
+                if (event.shouldCommit()) {
+                    event.formulaCells = formulaCellCount;
+                    event.levels = formulaLevels.size();
+                    event.cancelled = !finished;
+                    event.commit();
+                }
+            }
+        }
+
+        public void clearPending() {
+            for (List<CellData> formulaCells : formulaLevels) {
+                for (CellData cell : formulaCells) {
+                    cell.setPending(false);
+                }
+            }
+        }
+    }
+
+    private CellData getOrCreateCell(CellCode cellCode) {
+        long address = cellCode.toAddress();
+        CellData cell = cells.get(address);
+        if (cell == null) {
+            cell = new CellData(address);
+            cells.put(address, cell);
+        }
+        return cell;
+    }
+
+    private void removeIfBlank(CellData cell) {
+        if (cell.isBlank()) {
+            cells.remove(cell.getAddress());
+        }
+    }
+
+    private void setValue(CellData cell, CellValue value) {
+        cell.setValue(value);
+        aggregateIndex.set(CellAddress.getX(cell.getAddress()), CellAddress.getY(cell.getAddress()), value);
+    }
+
+    private void updateFormula(CellData cell) {
+        SILFormula formula = cell.getFormula();
+        String code = cell.hasFormula() ? cell.getContent().substring(1) : null;
+        if (formula == null ? code == null : formula.getCode().equals(code)) {
+            return;
+        }
+
+        formula = code != null ? SILFormula.get(code) : null;
+        cell.setFormula(formula);
+        if (formula != null) {
+            dependencyGraph.setReferences(cell.getAddress(), formula.getReferences(), clampRanges(formula.getRangeReferences()));
+        } else {
+            dependencyGraph.setReferences(cell.getAddress(), new long[0], new long[0]);
+        }
+    }
+
+    // Cuts ranges down to the part inside the sheet, dropping ranges entirely outside it, since cells outside the
+    // sheet never change and a range reaching far past it would otherwise be registered column by column
+    private long[] clampRanges(long[] ranges) {
+        LongList clamped = new LongList(ranges.length);
+        for (int i = 0; i < ranges.length; i += 2) {
+            int startX = Math.max(CellAddress.getX(ranges[i]), 1);
+            int startY = Math.max(CellAddress.getY(ranges[i]), 1);
+            int endX = Math.min(CellAddress.getX(ranges[i + 1]), columns);
+            int endY = Math.min(CellAddress.getY(ranges[i + 1]), rows);
+            if (startX <= endX && startY <= endY) {
+                clamped.add(CellAddress.pack(startX, startY));
+                clamped.add(CellAddress.pack(endX, endY));
+            }
+        }
+
+        return clamped.toArray();
+    }
+
+    private ForkJoinPool getRecalculationPool() {
+        if (recalculationPool == null) {
+            recalculationPool = new ForkJoinPool(parallelism);
+        }
+        return recalculationPool;
+    }
+
+    private void calculateFormulas(List<CellData> formulaCells, int start, int end, BooleanSupplier cancelled) {
+        for (int i = start; i < end && !cancelled.getAsBoolean(); i++) {
+            calculateFormula(formulaCells.get(i));
+        }
+    }
+
+    private class RecalculationTask extends RecursiveAction {
+        private final List<CellData> formulaCells;
+        private final int start;
+        private final int end;
+        private final BooleanSupplier cancelled;
+
+        RecalculationTask(List<CellData> formulaCells, int start, int end, BooleanSupplier cancelled) {
+            this.formulaCells = formulaCells;
+            this.start = start;
+            this.end = end;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= CELLS_PER_TASK) {
+                calculateFormulas(formulaCells, start, end, cancelled);
+                return;
+            }
+
+            int middle = (start + end) >>> 1;
+            invokeAll(new RecalculationTask(formulaCells, start, middle, cancelled), new RecalculationTask(formulaCells, middle, end, cancelled));
+        }
+    }
+
+    private void calculateFormula(CellData cell) {
+        CellEvaluationEvent event = new CellEvaluationEvent();
+        boolean timed = metrics.isEnabled() || event.isEnabled();
+        if (!timed) {
+            evaluateFormula(cell);
+            return;
+        }
+
+        event.begin();
+        long start = System.nanoTime();
+        evaluateFormula(cell);
+        long nanos = System.nanoTime() - start;
+
+        if (metrics.isEnabled()) {
+            metrics.recordEvaluation(nanos);
+            cell.recordEvaluation(nanos);
+        }
+        if (event.shouldCommit()) {
+            event.cell = cell.getCode().toString();
+            event.formula = cell.getContent();
+            event.commit();
+        }
+    }
+
+    private void evaluateFormula(CellData cell) {
+        SILFormula formula = cell.getFormula();
+
+        if (formula.getTokenizerError() != TokenizerError.NONE) {
+            setValue(cell, CellValue.error("#" + formula.getTokenizerError()));
+            return;
+        }
+
+        if (formula.getParserError() != ParserError.NONE) {
+            setValue(cell, CellValue.error("#" + formula.getParserError()));
+            return;
+        }
+
+        SILInterpreter interpreter = new SILInterpreter();
+        Object result = interpreter.interpret(formula, new SILInterpreter.SpreadsheetInterface() {
+            @Override
+            public CellValue getValueFromCell(int x, int y) {
+                if (!contains(x, y)) {
+                    return null;
+                }
+
+                // Recalculation levels put every cell after the cells it reads, so their values are already up to
+                // date and evaluating a cell never recurses into another
+                CellData other = cells.get(CellAddress.pack(x, y));
+                return other != null ? other.getValue() : CellValue.EMPTY;
+            }
+
+            @Override
+            public Double sumRange(SILRange range) {
+                if (!contains(range.start()) || !contains(range.end())) {
+                    return null;
+                }
+
+                return aggregateIndex.sum(range.start().x(), range.start().y(), range.end().x(), range.end().y());
+            }
+
+            @Override
+            public long getCellAddress() {
+                return cell.getAddress();
+            }
+        });
+
+        if (interpreter.error != InterpreterError.NONE) {
+            setValue(cell, CellValue.error(interpreter.error));
+            return;
+        }
+
+        setValue(cell, CellValue.fromResult(result));
+    }
+}
@@ -1,138 +1,169 @@
 package subsheet;
 
 import java.awt.*;
-import java.io.Serializable;
-import java.util.ArrayList;
+import java.awt.event.ActionEvent;
 import java.util.List;
 import javax.swing.*;
-
-public class Spreadsheet implements Serializable {
-    private JPanel panel;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableColumn;
+import sil.NumberFormatter;
+
+public class Spreadsheet {
+    private static final int ROW_HEIGHT = 20;
+    private static final int COLUMN_WIDTH = 75;
+    private static final int ROW_HEADER_WIDTH = 60;
+
+    private final SheetModel model;
+    private BackgroundRecalculator recalculator;
+    private SpreadsheetTableModel tableModel;
+    private JTable table;
+    private JLabel selectedCellLabel;
     private JScrollPane scrollPane;
-    private List<SpreadsheetCell> cells = new ArrayList<>();
-    private SpreadsheetCell selectedCell;
-    private final int rows;
-    private final int columns;
 
     public Spreadsheet(int rows, int columns) {
-        rows++;
-        columns++;
-        this.rows = rows;
-        this.columns = columns;
-        panel = new JPanel(new GridBagLayout());
-        scrollPane = new JScrollPane(panel);
-
-        for (int y = 0; y < rows; y++) {
-            for (int x = 0; x < columns; x++) {
-                if (x == 0 && y == 0) {
-                    cells.add(new SpreadsheetCell(this, x, y, 1, true, ""));
-                } else if (x == 0) {
-                    cells.add(new SpreadsheetCell(this, x, y, 3, true, String.valueOf(y)));
-                } else if (y == 0) {
-                    cells.add(new SpreadsheetCell(this, x, y, 6, true, String.valueOf((char) ('A' + x - 1))));
-                } else {
-                    SpreadsheetCell cell = new SpreadsheetCell(this, x, y, 6);
-                    cells.add(cell);
-                }
-            }
-        }
+        this(new SheetModel(rows, columns));
     }
 
-    public void onDeserialize() {
-        for (SpreadsheetCell cell : cells) {
-            cell.onDeserialize();
-        }
+    public Spreadsheet(SheetModel model) {
+        this.model = model;
+        createView();
     }
 
-    public void preSave() {
-        selectedCell.preSave();
-    }
+    private void createView() {
+        recalculator = new BackgroundRecalculator(model, new BackgroundRecalculator.Listener() {
+            @Override
+            public void recalculationStarted() {
+                table.repaint();
+            }
 
-    public SpreadsheetCell getCellByCode(CellCode cellCode) {
-        try {
-            return cells.get(cellCode.y() * columns + cellCode.x());
-        } catch (IndexOutOfBoundsException ex) {
-            return null;
+            @Override
+            public void recalculationFinished(List<CellCode> updatedCells) {
+                table.repaint();
+            }
+        });
+        tableModel = new SpreadsheetTableModel(model, recalculator);
+        table = new JTable(tableModel);
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        table.setCellSelectionEnabled(true);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.setRowHeight(ROW_HEIGHT);
+        table.setGridColor(Color.GRAY);
+        table.setDefaultRenderer(Object.class, new SpreadsheetCellRenderer(model));
+        table.setDefaultEditor(Object.class, new SpreadsheetCellEditor(model));
+        table.putClientProperty("terminateEditOnFocusLost", Boolean.TRUE);
+        table.getTableHeader().setReorderingAllowed(false);
+        table.getTableHeader().setFont(new Font("Arial", Font.BOLD, 14));
+        for (int i = 0; i < table.getColumnCount(); i++) {
+            TableColumn column = table.getColumnModel().getColumn(i);
+            column.setPreferredWidth(COLUMN_WIDTH);
         }
-    }
 
-    public void showEditingCell(CellCode cellCode) {
-        cells.get(0).overrideText(cellCode.toString());
-    }
+        table.getActionMap().put("copy", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                CellCode cellCode = getSelectedCell();
+                if (cellCode != null) {
+                    CopyPasteManager.setCopiedText(cellCode, model.getContent(cellCode));
+                }
+            }
+        });
+        table.getActionMap().put("paste", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                CellCode cellCode = getSelectedCell();
+                if (cellCode != null && CopyPasteManager.hasCopiedText()) {
+                    tableModel.setValueAt(CopyPasteManager.getCopiedText(cellCode), cellCode.y() - 1, cellCode.x() - 1);
+                }
+            }
+        });
 
-    public boolean refreshAllFormulaCells(SpreadsheetCell editedCell) {
-        List<SpreadsheetCell> cells = topologicallySortedCells();
+        selectedCellLabel = new JLabel("", SwingConstants.CENTER);
+        selectedCellLabel.setFont(new Font("Arial", Font.BOLD | Font.ITALIC, 14));
+        table.getSelectionModel().addListSelectionListener(e -> showSelectedCell());
+        table.getColumnModel().getSelectionModel().addListSelectionListener(e -> showSelectedCell());
 
-        if (cells == null) {
-            return false;
-        }
+        scrollPane = new JScrollPane(table);
+        scrollPane.setRowHeaderView(createRowHeader());
+        scrollPane.setCorner(ScrollPaneConstants.UPPER_LEFT_CORNER, selectedCellLabel);
+    }
 
-        for (SpreadsheetCell cell : cells) {
-            if (cell.hasFormula()) {
-                cell.calculateFormula();
+    private JList<String> createRowHeader() {
+        JList<String> rowHeader = new JList<>(new AbstractListModel<>() {
+            @Override
+            public int getSize() {
+                return model.getRows();
             }
-        }
 
-        return true;
+            @Override
+            public String getElementAt(int index) {
+                return String.valueOf(index + 1);
+            }
+        });
+        rowHeader.setFixedCellHeight(ROW_HEIGHT);
+        rowHeader.setFixedCellWidth(ROW_HEADER_WIDTH);
+        rowHeader.setFocusable(false);
+        rowHeader.setBackground(table.getTableHeader().getBackground());
+
+        DefaultListCellRenderer renderer = new DefaultListCellRenderer();
+        renderer.setHorizontalAlignment(SwingConstants.CENTER);
+        rowHeader.setCellRenderer((list, value, index, isSelected, cellHasFocus) -> {
+            Component component = renderer.getListCellRendererComponent(list, value, index, false, false);
+            component.setFont(table.getTableHeader().getFont());
+            return component;
+        });
+
+        return rowHeader;
     }
 
-    public List<SpreadsheetCell> topologicallySortedCells() {
-        List<SpreadsheetCell> L = new ArrayList<>();
-        List<SpreadsheetCell> S = new ArrayList<>();
-
-        for (SpreadsheetCell cell : cells) {
-            if (cell.hasFormula() && cell.timesReferenced() == 0) {
-                S.add(cell);
-            }
+    // Commits any edit in progress and waits for recalculation, so the model holds up to date values to save
+    public void preSave() {
+        if (table.isEditing()) {
+            table.getCellEditor().stopCellEditing();
         }
+        recalculator.awaitIdle();
+    }
 
-        while (!S.isEmpty()) {
-            SpreadsheetCell n = S.remove(0);
-            L.add(n);
-            for (SpreadsheetCell m : cells) {
-                if (n.referencesCell(m.getCode())) {
-                    n.removeReference(m.getCode());
-                    if (m.timesReferenced() == 0) {
-                        S.add(m);
-                    }
-                }
-            }
-        }
+    public SheetModel getModel() {
+        return model;
+    }
 
-        if (anyReferences()) {
-            return null;
-        } else {
-            return L;
-        }
+    private void showSelectedCell() {
+        CellCode cellCode = getSelectedCell();
+        selectedCellLabel.setText(cellCode != null ? cellCode.toString() : "");
     }
 
-    private boolean anyReferences() {
-        for (SpreadsheetCell cell : cells) {
-            if (cell.hasFormula() && cell.referenceCount() > 0) {
-                return true;
-            }
+    public CellCode getSelectedCell() {
+        int row = table.getSelectedRow();
+        int column = table.getSelectedColumn();
+        if (row < 0 || column < 0) {
+            return null;
         }
 
-        return false;
+        return SpreadsheetTableModel.toCellCode(row, column);
     }
 
-    public SpreadsheetCell[] getAllCells() {
-        return cells.toArray(new SpreadsheetCell[0]);
+    public void toggleSelectedCellStyle(int style) {
+        CellCode cellCode = getSelectedCell();
+        if (cellCode != null) {
+            recalculator.edit(() -> model.toggleStyle(cellCode, style));
+            tableModel.fireTableCellUpdated(cellCode.y() - 1, cellCode.x() - 1);
+        }
     }
 
-    public void setSelectedCell(SpreadsheetCell selectedCell) {
-        this.selectedCell = selectedCell;
+    public void setSelectedCellNumberFormat(NumberFormatter numberFormat) {
+        CellCode cellCode = getSelectedCell();
+        if (cellCode != null) {
+            recalculator.edit(() -> model.setNumberFormat(cellCode, numberFormat));
+            tableModel.fireTableCellUpdated(cellCode.y() - 1, cellCode.x() - 1);
+        }
     }
 
-    public SpreadsheetCell getSelectedCell() {
-        return selectedCell;
+    public NumberFormatter getSelectedCellNumberFormat() {
+        CellCode cellCode = getSelectedCell();
+        return cellCode != null ? model.getNumberFormat(cellCode) : NumberFormatter.GENERAL;
     }
 
     public void addToFrame(JFrame frame) {
-        for (SpreadsheetCell cell : cells) {
-            cell.addToPanel(panel);
-        }
-
         frame.add(scrollPane);
     }
 
@@ -0,0 +1,33 @@
+package subsheet;
+
+import javax.swing.*;
+import javax.swing.border.LineBorder;
+import java.awt.*;
+
+// Edits the content of a cell, showing the formula instead of its result. The editor component is reused for every cell.
+public class SpreadsheetCellEditor extends DefaultCellEditor {
+    private final SheetModel model;
+    private CellCode editingCell;
+
+    public SpreadsheetCellEditor(SheetModel model) {
+        super(new JTextField());
+        this.model = model;
+        setClickCountToStart(1);
+
+        JTextField textField = (JTextField) getComponent();
+        textField.setBorder(new LineBorder(SpreadsheetCellRenderer.SELECTED_COLOR, 2));
+        textField.addKeyListener(new SpreadsheetCellEventHandler(this, textField));
+    }
+
+    public CellCode getEditingCell() {
+        return editingCell;
+    }
+
+    @Override
+    public Component getTableCellEditorComponent(JTable table, Object value, boolean isSelected, int row, int column) {
+        editingCell = SpreadsheetTableModel.toCellCode(row, column);
+        Component component = super.getTableCellEditorComponent(table, model.getContent(editingCell), isSelected, row, column);
+        component.setFont(SpreadsheetCellRenderer.getFont(model.getStyle(editingCell)));
+        return component;
+    }
+}
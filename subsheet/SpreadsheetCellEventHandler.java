@@ -1,16 +1,14 @@
 package subsheet;
 
 import javax.swing.*;
-import javax.swing.border.LineBorder;
-import java.awt.*;
 import java.awt.event.*;
 
-public class SpreadsheetCellEventHandler implements FocusListener, KeyListener {
-    private final SpreadsheetCell cell;
+public class SpreadsheetCellEventHandler implements KeyListener {
+    private final SpreadsheetCellEditor editor;
     private final JTextField textField;
 
-    public SpreadsheetCellEventHandler(SpreadsheetCell cell, JTextField textField) {
-        this.cell = cell;
+    public SpreadsheetCellEventHandler(SpreadsheetCellEditor editor, JTextField textField) {
+        this.editor = editor;
         this.textField = textField;
     }
 
@@ -21,15 +19,11 @@ public class SpreadsheetCellEventHandler implements FocusListener, KeyListener {
 
     @Override
     public void keyPressed(KeyEvent e) {
-        if (!cell.isEditable()) {
-            return;
-        }
-
         if (isCtrlShortcut(e, KeyEvent.VK_C) && textField.getSelectedText() == null) {
-            CopyPasteManager.setCopiedText(cell.getCode(), textField.getText());
+            CopyPasteManager.setCopiedText(editor.getEditingCell(), textField.getText());
             e.consume();
         } else if (isCtrlShortcut(e, KeyEvent.VK_V) && textField.getSelectedText() == null && CopyPasteManager.hasCopiedText()) {
-            textField.setText(CopyPasteManager.getCopiedText(cell.getCode()));
+            textField.setText(CopyPasteManager.getCopiedText(editor.getEditingCell()));
             e.consume();
         }
     }
@@ -42,26 +36,4 @@ public class SpreadsheetCellEventHandler implements FocusListener, KeyListener {
     public void keyReleased(KeyEvent e) {
 
     }
-
-    @Override
-    public void focusGained(FocusEvent e) {
-        if (!cell.isEditable()) {
-            return;
-        }
-
-        cell.getSpreadsheet().setSelectedCell(cell);
-        cell.getSpreadsheet().showEditingCell(cell.getCode());
-        cell.setBorder(new LineBorder(new Color(0, 125, 220), 2));
-        cell.updateDisplayText(true);
-    }
-
-    @Override
-    public void focusLost(FocusEvent e) {
-        if (!cell.isEditable()) {
-            return;
-        }
-
-        cell.setBorder(new LineBorder(Color.GRAY, 1));
-        cell.updateDisplayText(false);
-    }
 }
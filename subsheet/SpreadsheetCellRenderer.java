@@ -0,0 +1,47 @@
+package subsheet;
+
+import javax.swing.*;
+import javax.swing.border.Border;
+import javax.swing.border.EmptyBorder;
+import javax.swing.border.LineBorder;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
+
+// A single renderer component is reused to paint every visible cell.
+public class SpreadsheetCellRenderer extends DefaultTableCellRenderer {
+    public static final Color FORMULA_COLOR = Color.CYAN;
+    public static final Color SELECTED_COLOR = new Color(0, 125, 220);
+    public static final Color PENDING_COLOR = Color.GRAY;
+
+    private static final Border focusBorder = new LineBorder(SELECTED_COLOR, 2);
+    private static final Border noFocusBorder = new EmptyBorder(1, 2, 1, 2);
+    private static final Font[] fonts = new Font[4];
+
+    static {
+        Font font = new Font("Arial", Font.PLAIN, 12);
+        for (int style = 0; style < fonts.length; style++) {
+            fonts[style] = font.deriveFont(style);
+        }
+    }
+
+    private final SheetModel model;
+
+    public SpreadsheetCellRenderer(SheetModel model) {
+        this.model = model;
+    }
+
+    public static Font getFont(int style) {
+        return fonts[style];
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+        CellCode cellCode = SpreadsheetTableModel.toCellCode(row, column);
+        setText((String) value);
+        setFont(fonts[model.getStyle(cellCode)]);
+        setForeground(model.isPending(cellCode) ? PENDING_COLOR : table.getForeground());
+        setBackground(model.hasFormula(cellCode) ? FORMULA_COLOR : table.getBackground());
+        setBorder(hasFocus ? focusBorder : noFocusBorder);
+        return this;
+    }
+}
@@ -0,0 +1,53 @@
+package subsheet;
+
+import javax.swing.table.AbstractTableModel;
+
+// Exposes a sheet model to a JTable. Values are read from the model only when a cell is painted.
+public class SpreadsheetTableModel extends AbstractTableModel {
+    private final SheetModel model;
+    private final BackgroundRecalculator recalculator;
+
+    public SpreadsheetTableModel(SheetModel model, BackgroundRecalculator recalculator) {
+        this.model = model;
+        this.recalculator = recalculator;
+    }
+
+    public SheetModel getModel() {
+        return model;
+    }
+
+    public static CellCode toCellCode(int row, int column) {
+        return new CellCode(column + 1, row + 1);
+    }
+
+    @Override
+    public int getRowCount() {
+        return model.getRows();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return model.getColumns();
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return CellAddress.getColumnName(column + 1);
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return model.getDisplayText(toCellCode(row, column));
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return true;
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        recalculator.setContent(toCellCode(row, column), (String) value);
+        fireTableCellUpdated(row, column);
+    }
+}
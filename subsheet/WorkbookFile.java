@@ -0,0 +1,311 @@
+package subsheet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import sil.CellValue;
+import sil.NumberFormatter;
+
+// Reads and writes sheet models in a compact binary format. Only stored cells are written, sorted by address, as
+// separate columns of addresses, styles, contents, number formats and values, with every string kept once in a dictionary.
+//
+// Header: magic, version, flags, rows, columns, body length
+// Body (deflated if FLAG_COMPRESSED is set):
+//   strings: count, then each string as a length and UTF-8 bytes
+//   cells: count, address deltas, styles, content string indices, number format string indices, value tags, numbers,
+//          value string indices
+// Version 1 files have no number formats.
+public class WorkbookFile {
+    public static final String EXTENSION = ".ss";
+
+    private static final int MAGIC = 0x53535742;
+    private static final short VERSION = 2;
+    private static final short VERSION_WITHOUT_FORMATS = 1;
+    private static final short FLAG_COMPRESSED = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private static final byte VALUE_EMPTY = 0;
+    private static final byte VALUE_NUMBER = 1;
+    private static final byte VALUE_TRUE = 2;
+    private static final byte VALUE_FALSE = 3;
+    private static final byte VALUE_STRING = 4;
+    private static final byte VALUE_ERROR = 5;
+
+    public static void write(SheetModel model, Path path, boolean compress) throws IOException {
+        List<CellData> cells = new ArrayList<>(model.getCellCount());
+        model.forEachCell(cells::add);
+        cells.sort((a, b) -> Long.compare(a.getAddress(), b.getAddress()));
+
+        HashMap<String, Integer> stringIndices = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] contentIndices = new int[cells.size()];
+        int[] formatIndices = new int[cells.size()];
+        byte[] valueTags = new byte[cells.size()];
+        for (int i = 0; i < cells.size(); i++) {
+            CellData cell = cells.get(i);
+            contentIndices[i] = intern(cell.getContent(), stringIndices, strings);
+            formatIndices[i] = intern(cell.getNumberFormat().getPattern(), stringIndices, strings);
+            valueTags[i] = getValueTag(cell.getValue());
+            if (valueTags[i] == VALUE_STRING || valueTags[i] == VALUE_ERROR) {
+                intern(cell.getValue().getText(), stringIndices, strings);
+            }
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+
+        writeVarInt(out, strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+
+        writeVarInt(out, cells.size());
+        long previousAddress = 0;
+        for (CellData cell : cells) {
+            writeVarLong(out, cell.getAddress() - previousAddress);
+            previousAddress = cell.getAddress();
+        }
+        for (CellData cell : cells) {
+            out.writeByte(cell.getStyle());
+        }
+        for (int contentIndex : contentIndices) {
+            writeVarInt(out, contentIndex);
+        }
+        for (int formatIndex : formatIndices) {
+            writeVarInt(out, formatIndex);
+        }
+        out.write(valueTags);
+        for (int i = 0; i < cells.size(); i++) {
+            if (valueTags[i] == VALUE_NUMBER) {
+                out.writeDouble(cells.get(i).getValue().getNumber());
+            }
+        }
+        for (int i = 0; i < cells.size(); i++) {
+            if (valueTags[i] == VALUE_STRING || valueTags[i] == VALUE_ERROR) {
+                writeVarInt(out, stringIndices.get(cells.get(i).getValue().getText()));
+            }
+        }
+        out.flush();
+
+        // Written to a temporary file first so a failed save never leaves a truncated workbook behind
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(temporaryPath))) {
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeInt(MAGIC);
+            header.writeShort(VERSION);
+            header.writeShort(compress ? FLAG_COMPRESSED : 0);
+            header.writeInt(model.getRows());
+            header.writeInt(model.getColumns());
+            header.writeLong(body.size());
+
+            if (compress) {
+                DeflaterOutputStream deflater = new DeflaterOutputStream(file);
+                body.writeTo(deflater);
+                deflater.close();
+            } else {
+                body.writeTo(file);
+            }
+        } catch (IOException ex) {
+            Files.deleteIfExists(temporaryPath);
+            throw ex;
+        }
+
+        try {
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static SheetModel read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header);
+            header.flip();
+
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a spreadsheet file");
+            }
+            short version = header.getShort();
+            if (version != VERSION && version != VERSION_WITHOUT_FORMATS) {
+                throw new IOException("Unsupported spreadsheet file version");
+            }
+            boolean compressed = (header.getShort() & FLAG_COMPRESSED) != 0;
+            int rows = header.getInt();
+            int columns = header.getInt();
+            long bodyLength = header.getLong();
+            if (bodyLength < 0 || bodyLength > Integer.MAX_VALUE) {
+                throw new IOException("Spreadsheet file is too large");
+            }
+
+            ByteBuffer body = ByteBuffer.allocate((int) bodyLength);
+            if (compressed) {
+                inflate(channel, body);
+            } else {
+                readFully(channel, body);
+            }
+            body.flip();
+
+            SheetModel model = new SheetModel(rows, columns);
+            readBody(body, model, version != VERSION_WITHOUT_FORMATS);
+            model.rebuild();
+            return model;
+        }
+    }
+
+    private static void readBody(ByteBuffer in, SheetModel model, boolean hasFormats) throws IOException {
+        try {
+            String[] strings = new String[readVarInt(in)];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[readVarInt(in)];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            int cellCount = readVarInt(in);
+            long[] addresses = new long[cellCount];
+            long address = 0;
+            for (int i = 0; i < cellCount; i++) {
+                address += readVarLong(in);
+                addresses[i] = address;
+            }
+            byte[] styles = new byte[cellCount];
+            in.get(styles);
+            int[] contentIndices = new int[cellCount];
+            for (int i = 0; i < cellCount; i++) {
+                contentIndices[i] = readVarInt(in);
+            }
+            NumberFormatter[] numberFormats = new NumberFormatter[cellCount];
+            for (int i = 0; i < cellCount; i++) {
+                numberFormats[i] = hasFormats ? NumberFormatter.get(strings[readVarInt(in)]) : NumberFormatter.GENERAL;
+            }
+            byte[] valueTags = new byte[cellCount];
+            in.get(valueTags);
+
+            CellValue[] values = new CellValue[cellCount];
+            for (int i = 0; i < cellCount; i++) {
+                switch (valueTags[i]) {
+                    case VALUE_EMPTY -> values[i] = CellValue.EMPTY;
+                    case VALUE_NUMBER -> values[i] = CellValue.number(in.getDouble());
+                    case VALUE_TRUE -> values[i] = CellValue.TRUE;
+                    case VALUE_FALSE -> values[i] = CellValue.FALSE;
+                    case VALUE_STRING, VALUE_ERROR -> { }
+                    default -> throw new IOException("Invalid cell value in spreadsheet file");
+                }
+            }
+            for (int i = 0; i < cellCount; i++) {
+                if (valueTags[i] == VALUE_STRING) {
+                    values[i] = CellValue.string(strings[readVarInt(in)]);
+                } else if (valueTags[i] == VALUE_ERROR) {
+                    values[i] = CellValue.error(strings[readVarInt(in)]);
+                }
+            }
+
+            for (int i = 0; i < cellCount; i++) {
+                // Cells outside the sheet would only fail later, when the model is rebuilt
+                if (!model.contains(CellAddress.getX(addresses[i]), CellAddress.getY(addresses[i]))) {
+                    throw new IOException("Corrupted spreadsheet file");
+                }
+                model.restoreCell(addresses[i], strings[contentIndices[i]], styles[i], numberFormats[i], values[i]);
+            }
+        } catch (RuntimeException ex) {
+            // Buffer underflows and bad indices mean the file was truncated or corrupted
+            throw new IOException("Corrupted spreadsheet file", ex);
+        }
+    }
+
+    private static int intern(String string, HashMap<String, Integer> stringIndices, List<String> strings) {
+        Integer index = stringIndices.get(string);
+        if (index == null) {
+            index = strings.size();
+            stringIndices.put(string, index);
+            strings.add(string);
+        }
+        return index;
+    }
+
+    private static byte getValueTag(CellValue value) {
+        return switch (value.getType()) {
+            case EMPTY -> VALUE_EMPTY;
+            case NUMBER -> VALUE_NUMBER;
+            case BOOLEAN -> value.getBoolean() ? VALUE_TRUE : VALUE_FALSE;
+            case STRING -> VALUE_STRING;
+            case ERROR -> VALUE_ERROR;
+        };
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of spreadsheet file");
+            }
+        }
+    }
+
+    private static void inflate(FileChannel channel, ByteBuffer body) throws IOException {
+        Inflater inflater = new Inflater();
+        ByteBuffer input = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    input.clear();
+                    if (channel.read(input) < 0) {
+                        throw new EOFException("Unexpected end of spreadsheet file");
+                    }
+                    input.flip();
+                    inflater.setInput(input);
+                }
+                if (inflater.needsDictionary() || (inflater.inflate(body) == 0 && !body.hasRemaining() && !inflater.finished())) {
+                    throw new IOException("Corrupted spreadsheet file");
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupted spreadsheet file", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        return (int) readVarLong(in);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Invalid variable length number");
+    }
+}
@@ -0,0 +1,243 @@
+package subsheet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import sil.NumberFormatter;
+
+// Saves a workbook incrementally by appending the cells edited since the last save to a journal next to the
+// workbook file, which is replayed on top of it when opened. Once the journal grows past a threshold it is compacted
+// into a new workbook file in the background.
+//
+// Journal: magic, then batches of a length, a CRC32 of the payload and the payload, which holds a count and that many
+// cells as an address, a style, the content and the number format pattern. A torn batch at the end is ignored.
+public class WorkbookJournal {
+    public static final String EXTENSION = ".journal";
+    public static final long COMPACTION_THRESHOLD = 1 << 20;
+
+    private static final int MAGIC = 0x53534A32;
+    private static final String COMPACTING_EXTENSION = ".compacting";
+
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Journal Compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path path;
+    private final Path journalPath;
+    private final Path compactingPath;
+    private boolean compacting;
+    private int snapshotVersion;
+    private long journalEnd = -1;
+
+    public WorkbookJournal(Path path) {
+        this.path = path;
+        journalPath = path.resolveSibling(path.getFileName() + EXTENSION);
+        compactingPath = path.resolveSibling(path.getFileName() + EXTENSION + COMPACTING_EXTENSION);
+    }
+
+    // Reads a workbook file and replays its journals on top of it, recalculating the cells they changed
+    public static SheetModel open(Path path) throws IOException {
+        return open(path, true);
+    }
+
+    // Reads a workbook file and replays its journals on top of it, leaving the cells they changed uncalculated unless
+    // asked to calculate them, for callers that recalculate the whole model themselves
+    public static SheetModel open(Path path, boolean calculate) throws IOException {
+        WorkbookJournal journal = new WorkbookJournal(path);
+        return journal.read(true, calculate);
+    }
+
+    // Writes every cell to the workbook file, replacing any journal
+    public synchronized void saveSnapshot(SheetModel model, boolean compress) throws IOException {
+        WorkbookFile.write(model, path, compress);
+        model.takeEditedCells();
+        Files.deleteIfExists(journalPath);
+        Files.deleteIfExists(compactingPath);
+        journalEnd = 0;
+        snapshotVersion++;
+    }
+
+    // Appends the cells edited since the last save to the journal, compacting it in the background if it got too large
+    public synchronized void append(SheetModel model) throws IOException {
+        // The edits are only taken once they are written, so a failed save leaves them for the next one
+        long[] addresses = model.getEditedCells();
+        if (addresses.length == 0) {
+            return;
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeInt(addresses.length);
+        for (long address : addresses) {
+            CellCode cellCode = CellCode.fromAddress(address);
+            byte[] content = model.getContent(cellCode).getBytes(StandardCharsets.UTF_8);
+            byte[] numberFormat = model.getNumberFormat(cellCode).getPattern().getBytes(StandardCharsets.UTF_8);
+            out.writeLong(address);
+            out.writeByte(model.getStyle(cellCode));
+            out.writeInt(content.length);
+            out.write(content);
+            out.writeInt(numberFormat.length);
+            out.write(numberFormat);
+        }
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        ByteBuffer batch = ByteBuffer.allocate(Integer.BYTES * 2 + payload.size());
+        batch.putInt(payload.size());
+        batch.putInt((int) crc.getValue());
+        batch.put(payload.toByteArray());
+        batch.flip();
+
+        if (journalEnd < 0) {
+            journalEnd = replay(journalPath, null, null);
+        }
+
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Drops a batch torn by an earlier crash, which would otherwise hide the batches after it
+            channel.truncate(journalEnd);
+            if (journalEnd == 0) {
+                channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, MAGIC));
+            }
+            channel.position(Math.max(journalEnd, Integer.BYTES));
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+            journalEnd = channel.position();
+        }
+        model.takeEditedCells();
+
+        // A journal left by a failed compaction is kept until the next full save rather than overwritten
+        if (journalEnd > COMPACTION_THRESHOLD && !compacting && !Files.exists(compactingPath)) {
+            // New batches go to a fresh journal while the full one is folded into the workbook file
+            Files.move(journalPath, compactingPath, StandardCopyOption.REPLACE_EXISTING);
+            journalEnd = 0;
+            compacting = true;
+            int version = snapshotVersion;
+            compactor.execute(() -> compact(version));
+        }
+    }
+
+    // Only the workbook file and the full journal are read, which no save modifies, so saves aren't blocked meanwhile.
+    // Batches appended since compaction started stay in the new journal, which is replayed on top of the new file.
+    private void compact(int version) {
+        Path temporaryPath = path.resolveSibling(path.getFileName() + EXTENSION + ".tmp");
+        try {
+            WorkbookFile.write(read(false, true), temporaryPath, true);
+
+            synchronized (this) {
+                // A snapshot saved in the meantime already holds every edit
+                if (version != snapshotVersion) {
+                    Files.deleteIfExists(temporaryPath);
+                    return;
+                }
+
+                Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+                Files.deleteIfExists(compactingPath);
+            }
+        } catch (IOException ex) {
+            System.out.println("IOException: " + ex.getMessage());
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    private SheetModel read(boolean includeJournal, boolean calculate) throws IOException {
+        SheetModel model = WorkbookFile.read(path);
+        List<CellCode> changedCells = new ArrayList<>();
+        replay(compactingPath, model, changedCells);
+        if (includeJournal) {
+            replay(journalPath, model, changedCells);
+        }
+
+        if (calculate && !changedCells.isEmpty()) {
+            model.recalculate(changedCells);
+        }
+        model.takeEditedCells();
+        return model;
+    }
+
+    // Applies the intact batches of a journal to a model, if given, and returns the length of the intact part
+    private static long replay(Path journalPath, SheetModel model, List<CellCode> changedCells) throws IOException {
+        if (!Files.exists(journalPath)) {
+            return 0;
+        }
+
+        ByteBuffer journal;
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Journal is too large");
+            }
+            journal = ByteBuffer.allocate((int) channel.size());
+            while (journal.hasRemaining()) {
+                if (channel.read(journal) < 0) {
+                    break;
+                }
+            }
+            journal.flip();
+        }
+
+        if (journal.remaining() < Integer.BYTES) {
+            return 0;
+        }
+        if (journal.getInt() != MAGIC) {
+            throw new IOException("Not a spreadsheet journal");
+        }
+
+        CRC32 crc = new CRC32();
+        long end = journal.position();
+        while (journal.remaining() >= Integer.BYTES * 2) {
+            int length = journal.getInt();
+            int checksum = journal.getInt();
+            if (length < 0 || length > journal.remaining()) {
+                break;
+            }
+
+            ByteBuffer payload = journal.slice(journal.position(), length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            journal.position(journal.position() + length);
+            end = journal.position();
+            if (model == null) {
+                continue;
+            }
+
+            for (int count = payload.getInt(); count > 0; count--) {
+                CellCode cellCode = CellCode.fromAddress(payload.getLong());
+                if (!model.contains(cellCode)) {
+                    throw new IOException("Corrupted journal");
+                }
+                int style = payload.get();
+                byte[] content = new byte[payload.getInt()];
+                payload.get(content);
+                byte[] numberFormat = new byte[payload.getInt()];
+                payload.get(numberFormat);
+
+                model.updateContent(cellCode, new String(content, StandardCharsets.UTF_8));
+                model.setStyle(cellCode, style);
+                model.setNumberFormat(cellCode, NumberFormatter.get(new String(numberFormat, StandardCharsets.UTF_8)));
+                changedCells.add(cellCode);
+            }
+        }
+
+        return end;
+    }
+}